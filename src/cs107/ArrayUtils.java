@@ -229,12 +229,15 @@ public final class ArrayUtils {
      * or one of the inner arrays of input is null
      */
     public static byte[][] imageToChannels(int[][] input){
+        var event = new QOIEvents.Conversion();
+        event.begin();
         assert !(input == null);
         int width = input[0].length;
         for (int i = 0; i < input.length; ++i) {
             assert !(input[i] == null || input[i].length != width);
         }
-        byte[][] channels = new byte[input.length * input[0].length][4];
+        // Fail instead of overflowing for images of more than Integer.MAX_VALUE pixels (See OffHeapImage)
+        byte[][] channels = new byte[Math.multiplyExact(input.length, input[0].length)][4];
 
         for (int j = 0; j < input.length; ++j){
             for (int k = 0; k < input[j].length; ++k){
@@ -248,6 +251,7 @@ public final class ArrayUtils {
                 channels[j * input[j].length +k][3] = temp;
             }
         }
+        event.end(width, input.length, QOISpecification.RGBA, (long) channels.length * QOISpecification.RGBA, (long) channels.length * QOISpecification.RGBA);
         return channels;
     }
 
@@ -266,7 +270,9 @@ public final class ArrayUtils {
      * or width is invalid
      */
     public static int[][] channelsToImage(byte[][] input, int height, int width){
-        assert !((input == null) || (input.length != (width * height)) || (height <= 0) || (width <= 0));
+        var event = new QOIEvents.Conversion();
+        event.begin();
+        assert !((input == null) || (input.length != (long) width * height) || (height <= 0) || (width <= 0));
         for (int i = 0; i< input.length; ++i){
             assert !(input[i] == null);
         }
@@ -289,7 +295,56 @@ public final class ArrayUtils {
                 row += 1;
             }
         }
+        event.end(width, height, QOISpecification.RGBA, (long) input.length * QOISpecification.RGBA, (long) input.length * QOISpecification.RGBA);
         return image;
     }
 
-}
\ No newline at end of file
+    /**
+     * Flatten a 2-dim integer array where each dimension is a direction
+     * in the image to a 1-dim array of ARGB pixels stored row after row
+     * @param input (int[][]) - image data
+     * @return (int[]) - packed image data
+     * @throws AssertionError if the input is null
+     * or one of the inner arrays of input is null or has a different width
+     * @throws ArithmeticException if the image has more than Integer.MAX_VALUE pixels
+     */
+    public static int[] imageToPixels(int[][] input){
+        var event = new QOIEvents.Conversion();
+        event.begin();
+        assert !(input == null || input.length == 0 || input[0] == null);
+        int width = input[0].length;
+        int[] pixels = new int[Math.multiplyExact(input.length, width)];
+        for (int i = 0; i < input.length; ++i){
+            assert !(input[i] == null || input[i].length != width);
+            System.arraycopy(input[i], 0, pixels, i * width, width);
+        }
+        event.end(width, input.length, QOISpecification.RGBA, (long) pixels.length * QOISpecification.RGBA, (long) pixels.length * QOISpecification.RGBA);
+        return pixels;
+    }
+
+    /**
+     * Format a 1-dim array of ARGB pixels stored row after row
+     * to a 2-dim int array where the first dimension is the height
+     * and the second is the width
+     * @param input (int[]) - packed image data
+     * @param height (int) - Height of the resulting image
+     * @param width (int) - Width of the resulting image
+     * @return (int[][]) - the image data
+     * @throws AssertionError if the input is null
+     * or input's length differs from width * height
+     * or height is invalid
+     * or width is invalid
+     */
+    public static int[][] pixelsToImage(int[] input, int height, int width){
+        var event = new QOIEvents.Conversion();
+        event.begin();
+        assert !((input == null) || (height <= 0) || (width <= 0) || (input.length != (long) width * height));
+        int[][] image = new int[height][width];
+        for (int i = 0; i < height; ++i){
+            System.arraycopy(input, i * width, image[i], 0, width);
+        }
+        event.end(width, height, QOISpecification.RGBA, (long) input.length * QOISpecification.RGBA, (long) input.length * QOISpecification.RGBA);
+        return image;
+    }
+
+}
@@ -0,0 +1,238 @@
+package cs107;
+
+import java.util.Arrays;
+
+/**
+ * Image whose ARGB pixels are stored in a single int[] row after row.
+ * The pixel (x, y) is stored at pixels[offset + y * stride + x], so a crop of an
+ * image is a view sharing its array. The hash of the pixels is computed once and cached,
+ * which makes images cheap map keys: an image must therefore not be modified once
+ * it has been hashed or compared.
+ * @apiNote {@link #of(Helper.Image)} and {@link #toImage()} convert from and to {@link Helper.Image}
+ * @version 1.0
+ * @since 1.0
+ */
+public final class FlatImage {
+
+    private final int[] pixels;
+    private final int offset;
+    private final int stride;
+    private final int width;
+    private final int height;
+    private final byte channels;
+    private final byte colorSpace;
+
+    /**
+     * Cached hash of the pixels, 0 until computed (a hash of 0 is then recomputed on each call)
+     */
+    private int hash;
+
+    private FlatImage(int[] pixels, int offset, int stride, int width, int height, byte channels, byte colorSpace){
+        this.pixels = pixels;
+        this.offset = offset;
+        this.stride = stride;
+        this.width = width;
+        this.height = height;
+        this.channels = channels;
+        this.colorSpace = colorSpace;
+    }
+
+    // ==================================================================================
+    // ================================= CONSTRUCTION ===================================
+    // ==================================================================================
+
+    /**
+     * Wrap packed pixels stored row after row without copying them
+     * @param pixels (int[]) - ARGB pixels, at least width * height
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels of the image
+     * @param colorSpace (byte) - Color space of the image
+     * @return (FlatImage) - Image viewing the array
+     * @throws AssertionError if pixels is null, the dimensions are not positive or the array is too small
+     */
+    public static FlatImage wrap(int[] pixels, int width, int height, byte channels, byte colorSpace){
+        assert pixels != null && width > 0 && height > 0 && pixels.length >= (long) width * height;
+        assert (channels == QOISpecification.RGB || channels == QOISpecification.RGBA) && (colorSpace == QOISpecification.sRGB || colorSpace == QOISpecification.ALL);
+        return new FlatImage(pixels, 0, width, width, height, channels, colorSpace);
+    }
+
+    /**
+     * Copy an image in a flat image
+     * @param image (Helper.Image) - Image to copy
+     * @return (FlatImage) - Flat copy of the image
+     * @throws AssertionError if the image is null
+     */
+    public static FlatImage of(Helper.Image image){
+        assert image != null;
+        return wrap(ArrayUtils.imageToPixels(image.data()), image.data()[0].length, image.data().length, image.channels(), image.color_space());
+    }
+
+    /**
+     * @return (Helper.Image) - Copy of this image as a {@link Helper.Image}
+     */
+    public Helper.Image toImage(){
+        int[][] data = new int[height][width];
+        for (int y = 0; y < height; ++y){
+            row(y, data[y], 0);
+        }
+        return Helper.generateImage(data, channels, colorSpace);
+    }
+
+    /**
+     * View a rectangle of this image, sharing its pixels
+     * @param x (int) - Column of the top left corner of the rectangle
+     * @param y (int) - Row of the top left corner of the rectangle
+     * @param width (int) - Width of the rectangle
+     * @param height (int) - Height of the rectangle
+     * @return (FlatImage) - The view
+     * @throws AssertionError if the rectangle is empty or not inside the image
+     */
+    public FlatImage crop(int x, int y, int width, int height){
+        assert x >= 0 && y >= 0 && width > 0 && height > 0 && x + width <= this.width && y + height <= this.height;
+        return new FlatImage(pixels, index(x, y), stride, width, height, channels, colorSpace);
+    }
+
+    // ==================================================================================
+    // ================================== ACCESSORS =====================================
+    // ==================================================================================
+
+    /**
+     * @return (int) - Width of the image
+     */
+    public int width(){
+        return width;
+    }
+
+    /**
+     * @return (int) - Height of the image
+     */
+    public int height(){
+        return height;
+    }
+
+    /**
+     * @return (byte) - Number of channels of the image
+     */
+    public byte channels(){
+        return channels;
+    }
+
+    /**
+     * @return (byte) - Color space of the image
+     */
+    public byte colorSpace(){
+        return colorSpace;
+    }
+
+    /**
+     * @return (int[]) - Array holding the pixels, shared with the image
+     */
+    public int[] array(){
+        return pixels;
+    }
+
+    /**
+     * @return (int) - Index in {@link #array()} of the pixel (0, 0)
+     */
+    public int offset(){
+        return offset;
+    }
+
+    /**
+     * @return (int) - Distance in {@link #array()} between two vertically adjacent pixels
+     */
+    public int stride(){
+        return stride;
+    }
+
+    /**
+     * @return (boolean) - true if the rows follow each other without gap in {@link #array()}
+     */
+    public boolean isContiguous(){
+        return stride == width || height == 1;
+    }
+
+    /**
+     * @param x (int) - Column of the pixel
+     * @param y (int) - Row of the pixel
+     * @return (int) - The ARGB pixel
+     * @throws AssertionError if the pixel is not inside the image
+     */
+    public int get(int x, int y){
+        assert x >= 0 && y >= 0 && x < width && y < height;
+        return pixels[index(x, y)];
+    }
+
+    /**
+     * Copy a row of the image
+     * @param y (int) - Index of the row
+     * @param destination (int[]) - Array where to copy the pixels
+     * @param position (int) - Index in the destination of the first pixel
+     * @throws AssertionError if the row is not inside the image or the destination is too small
+     */
+    public void row(int y, int[] destination, int position){
+        assert y >= 0 && y < height && destination != null && position >= 0 && destination.length - position >= width;
+        System.arraycopy(pixels, index(0, y), destination, position, width);
+    }
+
+    /**
+     * @param y (int) - Index of the row
+     * @return (int[]) - Copy of the row
+     */
+    public int[] row(int y){
+        int[] row = new int[width];
+        row(y, row, 0);
+        return row;
+    }
+
+    // ==================================================================================
+    // =============================== EQUALITY & HASH ==================================
+    // ==================================================================================
+
+    @Override
+    public boolean equals(Object obj){
+        if (this == obj){
+            return true;
+        }
+        if (!(obj instanceof FlatImage other) || width != other.width || height != other.height
+                || channels != other.channels || colorSpace != other.colorSpace || hashCode() != other.hashCode()){
+            return false;
+        }
+        for (int y = 0; y < height; ++y){
+            int from = index(0, y);
+            int otherFrom = other.index(0, y);
+            if (!Arrays.equals(pixels, from, from + width, other.pixels, otherFrom, otherFrom + width)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hash of the pixels, computed on the first call only
+     * @return (int) - Same hash as {@link Helper.Image#hashCode()} for the same pixels
+     */
+    @Override
+    public int hashCode(){
+        int result = hash;
+        if (result == 0){
+            // Same value as Arrays.deepHashCode(int[][]) of the rows
+            result = 1;
+            for (int y = 0; y < height; ++y){
+                int rowHash = 1;
+                for (int i = index(0, y), end = i + width; i < end; ++i){
+                    rowHash = 31 * rowHash + pixels[i];
+                }
+                result = 31 * result + rowHash;
+            }
+            hash = result;
+        }
+        return result;
+    }
+
+    private int index(int x, int y){
+        return offset + y * stride + x;
+    }
+
+}
@@ -2,11 +2,23 @@ package cs107;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Helper class. This class contains all the methods considered to be useful
@@ -97,9 +109,11 @@ public final class Helper {
             var width  = io.getWidth();
             var height = io.getHeight();
             var array = new int[height][width];
-            for(var x = 0; x < height;++x){
-                for(var y = 0 ;y < width; ++y){
-                    array[x][y] = io.getRGB(y, x);
+            if (!readRaster(io, array)){
+                for(var x = 0; x < height;++x){
+                    for(var y = 0 ;y < width; ++y){
+                        array[x][y] = io.getRGB(y, x);
+                    }
                 }
             }
             var nbrChannels = (byte) (io.getColorModel().hasAlpha() ? 4 : 3);
@@ -116,23 +130,166 @@ public final class Helper {
      * @param image (Image) - Image to store
      */
     public static void writeImage(String path, Image image) {
+        writeImage(Path.of(res_folder, path), image);
+    }
+
+    /**
+     * Write an image as "PNG" in the disk at the given path
+     * @param path (Path) - Relative or Absolute path to the image
+     * @param image (Image) - Image to store
+     */
+    public static void writeImage(Path path, Image image) {
         int type = switch (image.channels){
             case 3 -> BufferedImage.TYPE_3BYTE_BGR;
             case 4 -> BufferedImage.TYPE_4BYTE_ABGR;
             default -> fail("Cannot write this image, image.channels() == %d", image.channels);
         };
         var buffer = new BufferedImage(image.data[0].length, image.data.length, type);
-        for(var x = 0; x < buffer.getHeight(); ++x){
-            for(var y = 0 ; y < buffer.getWidth(); ++y){
-                buffer.setRGB(y, x, image.data[x][y]);
+        if (!writeRaster(buffer, image.data)){
+            for(var x = 0; x < buffer.getHeight(); ++x){
+                for(var y = 0 ; y < buffer.getWidth(); ++y){
+                    buffer.setRGB(y, x, image.data[x][y]);
+                }
             }
         }
-        var abs_path = res_folder + File.separator + path;
         try {
-            ImageIO.write(buffer, "png", new File(abs_path));
+            ImageIO.write(buffer, "png", path.toFile());
         }catch (IOException e){
-            fail("An error occurred while trying to write to : \"%s\"%n", abs_path);
+            fail("An error occurred while trying to write to : \"%s\"%n", path);
+        }
+    }
+
+    /**
+     * Copy the pixels of the image in the array by reading its raster directly,
+     * when the image uses one of the common layouts (TYPE_INT_ARGB, TYPE_4BYTE_ABGR, TYPE_3BYTE_BGR)
+     * @param io (BufferedImage) - Image to read
+     * @param array (int[][]) - ARGB pixels of the image
+     * @return (boolean) - false if the layout of the image is not supported (nothing is copied), true otherwise
+     */
+    static boolean readRaster(BufferedImage io, int[][] array){
+        var width = io.getWidth();
+        switch (io.getType()){
+            case BufferedImage.TYPE_INT_ARGB -> {
+                var data = packedRaster(io);
+                if (data == null){
+                    return false;
+                }
+                for (var x = 0; x < array.length; ++x){
+                    System.arraycopy(data, x * width, array[x], 0, width);
+                }
+            }
+            case BufferedImage.TYPE_4BYTE_ABGR -> {
+                var data = interleavedRaster(io, 4);
+                if (data == null){
+                    return false;
+                }
+                for (int x = 0, i = 0; x < array.length; ++x){
+                    var row = array[x];
+                    for (var y = 0; y < width; ++y, i += 4){
+                        row[y] = (data[i] & 0xFF) << 24 | (data[i + 3] & 0xFF) << 16 | (data[i + 2] & 0xFF) << 8 | (data[i + 1] & 0xFF);
+                    }
+                }
+            }
+            case BufferedImage.TYPE_3BYTE_BGR -> {
+                var data = interleavedRaster(io, 3);
+                if (data == null){
+                    return false;
+                }
+                for (int x = 0, i = 0; x < array.length; ++x){
+                    var row = array[x];
+                    for (var y = 0; y < width; ++y, i += 3){
+                        row[y] = 0xFF_00_00_00 | (data[i + 2] & 0xFF) << 16 | (data[i + 1] & 0xFF) << 8 | (data[i] & 0xFF);
+                    }
+                }
+            }
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copy the pixels of the array in the raster of the image directly,
+     * when the image uses one of the common layouts (TYPE_INT_ARGB, TYPE_4BYTE_ABGR, TYPE_3BYTE_BGR)
+     * @param io (BufferedImage) - Image to write
+     * @param array (int[][]) - ARGB pixels of the image
+     * @return (boolean) - false if the layout of the image is not supported (nothing is copied), true otherwise
+     */
+    static boolean writeRaster(BufferedImage io, int[][] array){
+        var width = io.getWidth();
+        switch (io.getType()){
+            case BufferedImage.TYPE_INT_ARGB -> {
+                var data = packedRaster(io);
+                if (data == null){
+                    return false;
+                }
+                for (var x = 0; x < array.length; ++x){
+                    System.arraycopy(array[x], 0, data, x * width, width);
+                }
+            }
+            case BufferedImage.TYPE_4BYTE_ABGR -> {
+                var data = interleavedRaster(io, 4);
+                if (data == null){
+                    return false;
+                }
+                for (int x = 0, i = 0; x < array.length; ++x){
+                    for (var pixel : array[x]){
+                        data[i++] = (byte) (pixel >>> 24);
+                        data[i++] = (byte) pixel;
+                        data[i++] = (byte) (pixel >> 8);
+                        data[i++] = (byte) (pixel >> 16);
+                    }
+                }
+            }
+            case BufferedImage.TYPE_3BYTE_BGR -> {
+                var data = interleavedRaster(io, 3);
+                if (data == null){
+                    return false;
+                }
+                for (int x = 0, i = 0; x < array.length; ++x){
+                    for (var pixel : array[x]){
+                        data[i++] = (byte) pixel;
+                        data[i++] = (byte) (pixel >> 8);
+                        data[i++] = (byte) (pixel >> 16);
+                    }
+                }
+            }
+            default -> {
+                return false;
+            }
         }
+        return true;
+    }
+
+    /**
+     * @param io (BufferedImage) - Image of type TYPE_INT_ARGB
+     * @return (int[]) - Pixels of the image if they are stored row after row without padding, null otherwise
+     */
+    private static int[] packedRaster(BufferedImage io){
+        var raster = io.getRaster();
+        if (raster.getDataBuffer() instanceof DataBufferInt buffer && buffer.getNumBanks() == 1 && buffer.getOffset() == 0
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel model && model.getScanlineStride() == io.getWidth()){
+            return buffer.getData();
+        }
+        return null;
+    }
+
+    /**
+     * @param io (BufferedImage) - Image of type TYPE_4BYTE_ABGR or TYPE_3BYTE_BGR
+     * @param channels (int) - Number of bytes per pixel
+     * @return (byte[]) - Bytes of the image if they are stored row after row without padding, null otherwise
+     */
+    private static byte[] interleavedRaster(BufferedImage io, int channels){
+        var raster = io.getRaster();
+        if (raster.getDataBuffer() instanceof DataBufferByte buffer && buffer.getNumBanks() == 1 && buffer.getOffset() == 0
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && raster.getSampleModel() instanceof PixelInterleavedSampleModel model
+                && model.getPixelStride() == channels && model.getScanlineStride() == io.getWidth() * channels){
+            return buffer.getData();
+        }
+        return null;
     }
 
     // ==================================================================================
@@ -145,8 +302,12 @@ public final class Helper {
      * @return (byte[]) - File content as stored in memory
      */
     public static byte[] read(String path) {
+        var event = new QOIEvents.FileRead();
+        event.begin();
         try(var input = new FileInputStream(path)){
-            return input.readAllBytes();
+            byte[] content = input.readAllBytes();
+            event.end(path, content.length);
+            return content;
         } catch (IOException e){
             return fail("An error occurred while trying to read from : \"%s\"%n", path);
         }
@@ -158,13 +319,97 @@ public final class Helper {
      * @param content (byte[]) - Content of the file.
      */
     public static void write(String path, byte[] content){
-        var abs_path = res_folder + File.separator + path;
-        try(var output = new FileOutputStream(abs_path)){
-            for (var b : content){
-                output.write(b);
+        write(Path.of(res_folder, path), ByteBuffer.wrap(content), false, false);
+    }
+
+    /**
+     * Write a file to the disk at the given path, with bulk writes to a FileChannel
+     * @apiNote An atomic write goes to a temporary file in the same directory which is
+     * then renamed to path, so readers see either the old file or the complete new one.
+     * The temporary file is created with the default permissions, like a direct write.
+     * A durable write forces the content to the storage device before returning, and for
+     * an atomic write also the directory holding the renamed file
+     * @param path (Path) - Relative or Absolute path to the file
+     * @param content (ByteBuffer) - Content of the file, from its position to its limit.
+     * The buffer is consumed (its position is moved to its limit)
+     * @param atomic (boolean) - true to write through a temporary file and a rename
+     * @param durable (boolean) - true to force the content to the storage device
+     */
+    public static void write(Path path, ByteBuffer content, boolean atomic, boolean durable){
+        assert path != null && content != null;
+        var event = new QOIEvents.FileWrite();
+        event.begin();
+        int bytes = content.remaining();
+        Path target = path;
+        try {
+            if (atomic){
+                target = createTemporary(path);
             }
+            try (var channel = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)){
+                while (content.hasRemaining()){
+                    channel.write(content);
+                }
+                if (durable){
+                    channel.force(true);
+                }
+            }
+            if (atomic){
+                try {
+                    Files.move(target, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e){
+                    Files.move(target, path, StandardCopyOption.REPLACE_EXISTING);
+                }
+                if (durable){
+                    forceDirectory(path.toAbsolutePath().getParent());
+                }
+            }
+            event.end(path, bytes);
         }catch (IOException e){
-            fail("An error occurred while trying to write to : \"%s\"%n", abs_path);
+            if (atomic && target != path){
+                try {
+                    Files.deleteIfExists(target);
+                } catch (IOException ignored){
+                    // The temporary file is left behind, the error below is more important
+                }
+            }
+            fail("An error occurred while trying to write to : \"%s\"%n", path);
+        }
+    }
+
+    /**
+     * Create a new temporary file next to the given path. Unlike Files.createTempFile,
+     * which restricts it to its owner, the file gets the default permissions
+     * @param path (Path) - Path of the file the temporary file will replace
+     * @return (Path) - Path of the new empty file
+     * @throws IOException if the file cannot be created
+     */
+    private static Path createTemporary(Path path) throws IOException {
+        var parent = path.toAbsolutePath().getParent();
+        while (true){
+            var temporary = parent.resolve(String.format("%s.%016x.tmp", path.getFileName(), ThreadLocalRandom.current().nextLong()));
+            try {
+                return Files.createFile(temporary);
+            } catch (FileAlreadyExistsException e){
+                // Another writer drew the same name, draw another one
+            }
+        }
+    }
+
+    /**
+     * Force the entries of a directory (such as a renamed file) to the storage device
+     * @param directory (Path) - The directory
+     * @throws IOException if the directory cannot be forced
+     */
+    private static void forceDirectory(Path directory) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e){
+            // Some systems (Windows) cannot open a directory: the rename is then as durable as it gets
+            return;
+        }
+        try (channel){
+            channel.force(true);
         }
     }
 
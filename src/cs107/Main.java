@@ -1,6 +1,26 @@
 package cs107;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.spi.IIORegistry;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Main entry point of the program.
@@ -58,6 +78,10 @@ public final class Main {
         //assert testQoiOpLuma();
         //assert testQoiOpRun();
         //assert testEncodeData();
+        //assert testEncodePixels();
+        //assert testStreamEncoder();
+        //assert testStripes();
+        //assert testContexts();
 
 
         // TEST ENCODER
@@ -100,6 +124,27 @@ public final class Main {
         //assert testDecodeQoiOpLuma();
         //assert testDecodeQoiOpRun();
         //assert testDecodeData();
+        //assert testDecodePixels();
+        //assert testStreamDecoder();
+        //assert testStreamDecoderSplitReads();
+        //assert testDecodeMappedFile();
+        //assert testDecodeWithIndex();
+        //assert testDecodeWithIndexWithoutAssertions();
+        //assert testZeroAllocationDecode();
+        //assert testDecodeRows();
+        //assert testDecodeScaled();
+        //assert testStatistics();
+        //assert testImageCache();
+        //assert testEncodeCache();
+        //assert testFlatImage();
+        //assert testOffHeapImage();
+        //assert testOffHeapChunks();
+        //assert testImageIO();
+        //assert testImageIOLinear();
+        //assert testProbe();
+        //assert testBatch();
+        //assert testRasterLayouts();
+        //assert testAtomicWrite();
 
         System.out.println("All the tests passes. Congratulations");
     }
@@ -144,6 +189,16 @@ public final class Main {
         return 100d * png / qoi;
     }
 
+    /**
+     * Computes the ratio
+     * @param png (long) - Size of the "PNG" file(s)
+     * @param qoi (long) - Size of the "QOI" file(s)
+     * @return (double) - The ratio
+     */
+    public static double ratio(long png, long qoi){
+        return 100d * png / qoi;
+    }
+
     // ============================================================================================
     // ============================== ArrayUtils examples =========================================
     // ============================================================================================
@@ -302,6 +357,52 @@ public final class Main {
         return Arrays.equals(expected, encoding);
     }
 
+    @SuppressWarnings("unused")
+    private static boolean testEncodePixels(){
+        int[] pixels = {0xFF_00_00_00, 0xFF_00_00_00, 0xFF_00_00_00, 0xFF_00_FF_00, 0xFF_EE_EC_EE, 0xFF_00_00_00, 0xFF_64_64_64, 0x5A_5A_5A_5A};
+        byte[] expected = {-62, 102, -115, -103, -76, 102, -2, 100, 100, 100, -1, 90, 90, 90, 90};
+        byte[] encoding = QOIEncoder.encodeData(pixels);
+        return Arrays.equals(expected, encoding);
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testStreamEncoder(){
+        int[][] rows = {{0xFF_00_00_00, 0xFF_00_00_00, 0xFF_00_00_00, 0xFF_00_FF_00}, {0xFF_EE_EC_EE, 0xFF_00_00_00, 0xFF_64_64_64, 0x5A_5A_5A_5A}};
+        var output = new ByteArrayOutputStream();
+        try (var encoder = new QOIStreamEncoder(output, 4, 2, QOISpecification.RGBA, QOISpecification.sRGB)){
+            for (var row : rows){
+                encoder.writeRow(row);
+            }
+        } catch (IOException e){
+            return false;
+        }
+        byte[] expected = QOIEncoder.qoiFile(Helper.generateImage(rows, QOISpecification.RGBA, QOISpecification.sRGB));
+        return Arrays.equals(expected, output.toByteArray());
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testStripes(){
+        Helper.Image image = Helper.readImage("references/dice.png");
+        byte[] striped = QOIStripes.qoiFile(image, 16, ForkJoinPool.commonPool());
+        return QOIStripes.isStriped(striped)
+                && image.equals(QOIStripes.decodeQoiFile(striped, ForkJoinPool.commonPool()))
+                && image.equals(QOIDecoder.decodeQoiFile(QOIStripes.toQoiFile(striped)));
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testContexts(){
+        var encoder = new QOIEncoderContext();
+        var decoder = new QOIDecoderContext();
+        for (var name : new String[]{"dice", "random", "cube"}){
+            Helper.Image image = Helper.readImage("references/" + name + ".png");
+            byte[] file = encoder.qoiFile(image);
+            if (!Arrays.equals(Helper.read("references/" + name + ".qoi"), file) || !image.equals(decoder.decodeQoiFile(file))){
+                return false;
+            }
+        }
+        return true;
+    }
+
     // ============================================================================================
     // ============================== QOIDecoder examples =========================================
     // ============================================================================================
@@ -373,4 +474,428 @@ public final class Main {
         return Arrays.deepEquals(expected, QOIDecoder.decodeData(encoding, 4, 2));
     }
 
+    @SuppressWarnings("unused")
+    private static boolean testDecodePixels(){
+        byte[] encoding = {-62, 102, -115, -103, -76, 102, -2, 100, 100, 100, -1, 90, 90, 90, 90};
+        int[] expected = {0xFF_00_00_00, 0xFF_00_00_00, 0xFF_00_00_00, 0xFF_00_FF_00, 0xFF_EE_EC_EE, 0xFF_00_00_00, 0xFF_64_64_64, 0x5A_5A_5A_5A};
+        return Arrays.equals(expected, QOIDecoder.decodePixels(encoding, 4, 2));
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testStreamDecoder(){
+        byte[] file = {'q', 'o', 'i', 'f', 0, 0, 0, 4, 0, 0, 0, 2, 4, 0, -62, 102, -115, -103, -76, 102, -2, 100, 100, 100, -1, 90, 90, 90, 90, 0, 0, 0, 0, 0, 0, 0, 1};
+        int[][] expected = {{0xFF_00_00_00, 0xFF_00_00_00, 0xFF_00_00_00, 0xFF_00_FF_00}, {0xFF_EE_EC_EE, 0xFF_00_00_00, 0xFF_64_64_64, 0x5A_5A_5A_5A}};
+        int[][] rows = new int[2][];
+        try (var decoder = new QOIStreamDecoder(new ByteArrayInputStream(file))){
+            decoder.readRows((row, y) -> rows[y] = row.clone());
+        } catch (IOException e){
+            return false;
+        }
+        return Arrays.deepEquals(expected, rows);
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testStreamDecoderSplitReads(){
+        byte[] file = Helper.read("references/dice.qoi");
+        int[][] expected = QOIDecoder.decodeQoiFile(file).data();
+        // One byte per read and the smallest buffer: the header and most chunks are split between reads
+        var source = new ReadableByteChannel() {
+            private int position;
+
+            @Override
+            public int read(ByteBuffer destination){
+                if (position == file.length){
+                    return -1;
+                }
+                destination.put(file[position++]);
+                return 1;
+            }
+
+            @Override
+            public boolean isOpen(){
+                return true;
+            }
+
+            @Override
+            public void close(){}
+        };
+        int[][] rows = new int[expected.length][];
+        try (var decoder = new QOIStreamDecoder(source, QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length)){
+            decoder.readRows((row, y) -> rows[y] = row.clone());
+        } catch (IOException e){
+            return false;
+        }
+        return Arrays.deepEquals(expected, rows);
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testDecodeMappedFile(){
+        Helper.Image expected = QOIDecoder.decodeQoiFile(Helper.read("references/dice.qoi"));
+        Helper.Image mapped = QOIDecoder.decodeQoiFile(Path.of("references/dice.qoi"));
+        return expected.equals(mapped);
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testDecodeWithIndex(){
+        byte[] content = Helper.read("references/cube.qoi");
+        byte[] index = QOIIndex.index(content, 1000);
+        return QOIDecoder.decodeQoiFile(content).equals(QOIIndex.decodeQoiFile(content, index, ForkJoinPool.commonPool()));
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testDecodeWithIndexWithoutAssertions(){
+        byte[] content = Helper.read("references/cube.qoi");
+        byte[] index = QOIIndex.index(content, 1000);
+        int[][] expected = QOIDecoder.decodeQoiFile(content).data();
+        // Load the classes again with their assertions disabled, as a JVM runs them by default
+        var location = Main.class.getProtectionDomain().getCodeSource().getLocation();
+        try (var loader = new URLClassLoader(new URL[]{location}, ClassLoader.getPlatformClassLoader())){
+            loader.setPackageAssertionStatus(Main.class.getPackageName(), false);
+            Method decode = loader.loadClass(QOIIndex.class.getName()).getMethod("decodeQoiFile", byte[].class, byte[].class, ForkJoinPool.class);
+            Object image = decode.invoke(null, content, index, ForkJoinPool.commonPool());
+            return Arrays.deepEquals(expected, (int[][]) image.getClass().getMethod("data").invoke(image));
+        } catch (IOException | ReflectiveOperationException e){
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testZeroAllocationDecode(){
+        byte[] content = Helper.read("references/dice.qoi");
+        Helper.Image expected = QOIDecoder.decodeQoiFile(content);
+        int[] pixels = new int[expected.data().length * expected.data()[0].length];
+        ByteBuffer bytes = ByteBuffer.allocate(pixels.length * QOISpecification.RGBA);
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean) || !bean.isThreadAllocatedMemorySupported()){
+            return false;
+        }
+        long dimensions = 0;
+        // Warm-up, to let the JIT compile the decoding loop
+        for (int i = 0; i < 50; ++i){
+            dimensions = QOIDecoder.decodeQoiFile(content, pixels);
+            QOIDecoder.decodeQoiFile(content, bytes.clear());
+        }
+        long before = bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int i = 0; i < 50; ++i){
+            dimensions = QOIDecoder.decodeQoiFile(content, pixels);
+            QOIDecoder.decodeQoiFile(content, bytes.clear());
+        }
+        long allocated = bean.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        int width = QOIDecoder.width(dimensions);
+        int height = QOIDecoder.height(dimensions);
+        return allocated == 0
+                && Arrays.deepEquals(expected.data(), ArrayUtils.pixelsToImage(pixels, height, width))
+                && bytes.getInt(0) == Integer.rotateLeft(pixels[0], 8);
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testDecodeRows(){
+        byte[] content = Helper.read("references/beach.qoi");
+        int[][] expected = QOIDecoder.decodeQoiFile(content).data();
+        int[][] band = QOIDecoder.decodeRows(content, 100, 37).data();
+        int[][] top = QOIDecoder.decodeFirstRows(content, 5).data();
+        return Arrays.deepEquals(Arrays.copyOfRange(expected, 100, 137), band)
+                && Arrays.deepEquals(Arrays.copyOfRange(expected, 0, 5), top)
+                && Arrays.deepEquals(expected, QOIDecoder.decodeRows(content, 0, expected.length).data());
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testDecodeScaled(){
+        byte[] content = Helper.read("references/dice.qoi");
+        int[][] expected = QOIDecoder.decodeQoiFile(content).data();
+        int[][] scaled = QOIDecoder.decodeScaled(content, 4).data();
+        // Average of the green channel of the first block
+        int green = 0;
+        for (int y = 0; y < 4; ++y){
+            for (int x = 0; x < 4; ++x){
+                green += (expected[y][x] >> 8) & 0xFF;
+            }
+        }
+        return scaled.length == (expected.length + 3) / 4 && scaled[0].length == (expected[0].length + 3) / 4
+                && ((scaled[0][0] >> 8) & 0xFF) == (green + 8) / 16
+                && Arrays.deepEquals(expected, QOIDecoder.decodeScaled(content, 1).data());
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testStatistics(){
+        var encoded = new QOIStatistics.Collector();
+        var decoded = new QOIStatistics.Collector();
+        Helper.Image image = Helper.readImage("references/qoi_op_run.png");
+        byte[] file = QOIEncoder.qoiFile(image, encoded);
+        QOIDecoder.decodeQoiFile(file, decoded);
+        QOIStatistics.Report report = encoded.report();
+        long chunks = 0;
+        for (QOIStatistics.Op op : QOIStatistics.Op.values()){
+            chunks += report.count(op);
+        }
+        return report.pixels() == (long) image.data().length * image.data()[0].length
+                && report.bytes() == file.length - QOISpecification.HEADER_SIZE - QOISpecification.QOI_EOF.length
+                && report.count(QOIStatistics.Op.RUN) > 0 && chunks > 0
+                && report.runs() > 0 && report.runs() <= report.count(QOIStatistics.Op.RUN)
+                && report.runPixels() + chunks - report.count(QOIStatistics.Op.RUN) == report.pixels()
+                && report.toString().equals(decoded.report().toString());
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testImageCache(){
+        Path dice = Path.of("references/dice.qoi");
+        Path cube = Path.of("references/cube.qoi");
+        Helper.Image expected = QOIDecoder.decodeQoiFile(dice);
+        // Room for a single image: loading the second one evicts the first
+        var cache = new QOIImageCache((long) expected.data().length * expected.data()[0].length * QOISpecification.RGBA);
+        Helper.Image first = cache.get(dice);
+        boolean same = cache.get(dice) == first;
+        cache.get(cube);
+        QOIImageCache.Stats stats = cache.stats();
+        return same && first.equals(expected)
+                && stats.hits() == 1 && stats.misses() == 2 && stats.loads() == 2
+                && stats.evictions() == 1 && stats.entries() == 1;
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testEncodeCache(){
+        Helper.Image image = Helper.readImage("references/dice.png");
+        Path root;
+        try {
+            root = Files.createTempDirectory("qoi-cache");
+        } catch (IOException e){
+            return false;
+        }
+        try {
+            var cache = new QOIEncodeCache(root);
+            byte[] first = cache.qoiFile(image);
+            byte[] second = cache.qoiFile(Helper.readImage("references/dice.png"));
+            // A truncated file (as left by a crash) must be encoded again, not returned
+            String key = QOIEncodeCache.contentHash(image);
+            Path file = root.resolve(key.substring(0, 2)).resolve(key + ".qoi");
+            Files.write(file, Arrays.copyOf(first, first.length / 2));
+            byte[] third = cache.qoiFile(image);
+            QOIEncodeCache.Stats stats = cache.stats();
+            return Arrays.equals(first, QOIEncoder.qoiFile(image)) && Arrays.equals(first, second)
+                    && Arrays.equals(first, third) && Arrays.equals(first, Files.readAllBytes(file))
+                    && stats.encodes() == 2 && stats.hits() == 1
+                    && !QOIEncodeCache.contentHash(image).equals(QOIEncodeCache.contentHash(Helper.readImage("references/cube.png")));
+        } catch (IOException e){
+            return false;
+        } finally {
+            deleteTree(root);
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testFlatImage(){
+        byte[] content = Helper.read("references/dice.qoi");
+        Helper.Image image = QOIDecoder.decodeQoiFile(content);
+        FlatImage flat = QOIDecoder.decodeFlatImage(content);
+        // A crop is a view: encoding it must give the same file as the copied rows
+        FlatImage crop = flat.crop(100, 50, 200, 120);
+        int[][] rows = new int[120][];
+        for (int y = 0; y < rows.length; ++y){
+            rows[y] = Arrays.copyOfRange(image.data()[50 + y], 100, 300);
+        }
+        Helper.Image cropped = Helper.generateImage(rows, image.channels(), image.color_space());
+        return flat.equals(FlatImage.of(image)) && flat.hashCode() == image.hashCode()
+                && flat.toImage().equals(image) && Arrays.equals(QOIEncoder.qoiFile(flat), content)
+                && crop.array() == flat.array() && crop.toImage().equals(cropped)
+                && Arrays.equals(QOIEncoder.qoiFile(crop), QOIEncoder.qoiFile(cropped));
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testOffHeapImage(){
+        Helper.Image expected = QOIDecoder.decodeQoiFile(Path.of("references/dice.qoi"));
+        try (var image = QOIDecoder.decodeOffHeap(Path.of("references/dice.qoi"))){
+            Path copy = Files.createTempFile("offheap", ".qoi");
+            QOIEncoder.writeQoiFile(image, copy);
+            boolean same = Arrays.equals(Files.readAllBytes(copy), Helper.read("references/dice.qoi"));
+            Files.delete(copy);
+            int[] row = new int[image.width()];
+            image.row(100, row);
+            return same && Arrays.equals(row, expected.data()[100])
+                    && image.get(100L * image.width() + 7) == expected.data()[100][7];
+        } catch (IOException e){
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testOffHeapChunks(){
+        // Chunks of 64 pixels with rows of 50: most rows cross the boundary between two chunks
+        int width = 50;
+        int height = 7;
+        int[][] pixels = new int[height][width];
+        for (int y = 0; y < height; ++y){
+            for (int x = 0; x < width; ++x){
+                pixels[y][x] = y * width + x;
+            }
+        }
+        try (var image = OffHeapImage.allocate(width, height, QOISpecification.RGBA, QOISpecification.sRGB, 64)){
+            for (int y = 0; y < height; ++y){
+                image.setRow(y, pixels[y]);
+            }
+            int[] row = new int[width];
+            for (int y = 0; y < height; ++y){
+                image.row(y, row);
+                if (!Arrays.equals(row, pixels[y])){
+                    return false;
+                }
+            }
+            for (long index = 0; index < image.pixels(); ++index){
+                if (image.get(index) != index){
+                    return false;
+                }
+            }
+            image.set(64, -1);
+            image.row(1, row);
+            return row[14] == -1 && row[13] == 63 && row[15] == 65;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testImageIO(){
+        // The providers are found through "META-INF/services", register them in case it is not on the classpath
+        IIORegistry.getDefaultInstance().registerServiceProvider(new QOIImageReaderSpi());
+        IIORegistry.getDefaultInstance().registerServiceProvider(new QOIImageWriterSpi());
+        byte[] content = Helper.read("references/dice.qoi");
+        try {
+            var image = ImageIO.read(new ByteArrayInputStream(content));
+            var output = new ByteArrayOutputStream();
+            return image.getRGB(10, 10) == QOIDecoder.decodeQoiFile(content).data()[10][10]
+                    && ImageIO.write(image, "qoi", output)
+                    && Arrays.equals(content, output.toByteArray());
+        } catch (IOException e){
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testImageIOLinear(){
+        IIORegistry.getDefaultInstance().registerServiceProvider(new QOIImageReaderSpi());
+        IIORegistry.getDefaultInstance().registerServiceProvider(new QOIImageWriterSpi());
+        int[][] pixels = QOIDecoder.decodeQoiFile(Helper.read("references/dice.qoi")).data();
+        int width = pixels[0].length;
+        var linear = ColorSpace.getInstance(ColorSpace.CS_LINEAR_RGB);
+        var image = ImageTypeSpecifier.createPacked(linear, 0x00_FF_00_00, 0x00_00_FF_00, 0x00_00_00_FF, 0xFF_00_00_00, DataBuffer.TYPE_INT, false)
+                .createBufferedImage(width, pixels.length);
+        for (int y = 0; y < pixels.length; ++y){
+            image.getRaster().setDataElements(0, y, width, 1, pixels[y]);
+        }
+        try {
+            var output = new ByteArrayOutputStream();
+            if (!ImageIO.write(image, "qoi", output)){
+                return false;
+            }
+            byte[] content = output.toByteArray();
+            var read = ImageIO.read(new ByteArrayInputStream(content));
+            int[] row = new int[width];
+            read.getRaster().getDataElements(0, 100, width, 1, row);
+            return content[QOISpecification.HEADER_SIZE - 1] == QOISpecification.ALL
+                    && read.getColorModel().getColorSpace() == linear
+                    && Arrays.equals(pixels[100], row)
+                    && Arrays.deepEquals(pixels, QOIDecoder.decodeQoiFile(content).data());
+        } catch (IOException e){
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testProbe(){
+        var paths = List.of(Path.of("references/dice.qoi"), Path.of("references/beach.qoi"), Path.of("references/dice.png"));
+        var headers = QOIProbe.probeAll(paths, ForkJoinPool.commonPool());
+        return Arrays.equals(QOIProbe.probe(paths.get(0)), QOIDecoder.decodeHeader(ArrayUtils.extract(Helper.read("references/dice.qoi"), 0, QOISpecification.HEADER_SIZE)))
+                && Arrays.equals(headers.get(paths.get(1)), QOIProbe.probe(paths.get(1)))
+                && headers.size() == 2;
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testBatch(){
+        Path root = null;
+        try {
+            root = Files.createTempDirectory("qoi-batch");
+            Path input = Files.createDirectories(root.resolve("input").resolve("sub"));
+            Files.copy(Path.of("references/dice.png"), input.resolve("dice.png"));
+            Files.copy(Path.of("references/cube.qoi"), input.resolve("cube.qoi"));
+            Files.writeString(input.resolve("broken.png"), "not an image");
+            Files.writeString(input.resolve("notes.txt"), "not converted");
+            Path output = root.resolve("output");
+            QOIBatch.Report report = QOIBatch.convert(root.resolve("input"), output, 2);
+            return report.files() == 2 && report.failures() == 1
+                    && Arrays.equals(Files.readAllBytes(output.resolve("sub").resolve("dice.qoi")), Helper.read("references/dice.qoi"))
+                    && Files.isRegularFile(output.resolve("sub").resolve("cube.png"))
+                    && !Files.exists(output.resolve("sub").resolve("notes.txt"));
+        } catch (IOException e){
+            return false;
+        } finally {
+            deleteTree(root);
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testRasterLayouts(){
+        int width = 7;
+        int height = 5;
+        int[][] pixels = new int[height][width];
+        for (int y = 0; y < height; ++y){
+            for (int x = 0; x < width; ++x){
+                pixels[y][x] = (x * 37 + y * 11) << 24 | (x * 29) << 16 | (y * 43) << 8 | (x * y * 7 + 3);
+            }
+        }
+        for (int type : new int[]{BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_3BYTE_BGR}){
+            // Without alpha channel, the pixels are read back opaque
+            int mask = type == BufferedImage.TYPE_3BYTE_BGR ? 0xFF_00_00_00 : 0;
+            var written = new BufferedImage(width, height, type);
+            int[][] read = new int[height][width];
+            if (!Helper.writeRaster(written, pixels) || !Helper.readRaster(written, read)){
+                return false;
+            }
+            for (int y = 0; y < height; ++y){
+                for (int x = 0; x < width; ++x){
+                    if (written.getRGB(x, y) != (pixels[y][x] | mask) || read[y][x] != (pixels[y][x] | mask)){
+                        return false;
+                    }
+                }
+            }
+        }
+        // Other layouts are left to getRGB and setRGB
+        return !Helper.readRaster(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), new int[height][width]);
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testAtomicWrite(){
+        Path root = null;
+        try {
+            root = Files.createTempDirectory("qoi-write");
+            Path file = root.resolve("image.qoi");
+            Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+            byte[] content = Helper.read("references/dice.qoi");
+            Helper.write(file, ByteBuffer.wrap(content), true, false);
+            boolean replaced = Arrays.equals(content, Files.readAllBytes(file));
+            Helper.write(file, ByteBuffer.wrap(new byte[]{42}), true, true);
+            boolean durable = Arrays.equals(new byte[]{42}, Files.readAllBytes(file));
+            // The temporary files were renamed, only the target is left
+            try (var files = Files.list(root)){
+                return replaced && durable && files.toList().equals(List.of(file));
+            }
+        } catch (IOException e){
+            return false;
+        } finally {
+            deleteTree(root);
+        }
+    }
+
+    /**
+     * Delete a directory created by a test and all its content
+     * @param root (Path) - The directory, nothing is done if it is null
+     */
+    private static void deleteTree(Path root){
+        if (root == null){
+            return;
+        }
+        try (var tree = Files.walk(root)){
+            for (var path : (Iterable<Path>) tree.sorted(Comparator.reverseOrder())::iterator){
+                Files.delete(path);
+            }
+        } catch (IOException e){
+            System.err.printf("Cannot delete '%s'%n", root);
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,237 @@
+package cs107;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Image whose ARGB pixels are stored outside of the Java heap, indexed by long.
+ * The pixels are stored row after row in direct buffers of at most {@link #CHUNK_PIXELS}
+ * pixels each, so an image may hold more than Integer.MAX_VALUE bytes (width * height * 4)
+ * without being scanned by the garbage collector. {@link #close()} frees the memory at once.
+ * @apiNote An image is not thread safe to close: it must not be used by another thread while
+ * it is being closed, nor after it was closed
+ * @version 1.0
+ * @since 1.0
+ */
+public final class OffHeapImage implements AutoCloseable {
+
+    /**
+     * Number of pixels of each direct buffer (1 GiB)
+     */
+    public static final int CHUNK_PIXELS = 1 << 28;
+
+    /**
+     * sun.misc.Unsafe::invokeCleaner (module jdk.unsupported), null if the JVM does not provide it
+     */
+    private static final Method INVOKE_CLEANER;
+    private static final Object UNSAFE;
+
+    static {
+        Method invokeCleaner = null;
+        Object unsafe = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e){
+            // The buffers are then freed by the garbage collector
+        }
+        INVOKE_CLEANER = invokeCleaner;
+        UNSAFE = unsafe;
+    }
+
+    private final int width;
+    private final int height;
+    private final byte channels;
+    private final byte colorSpace;
+    private final int chunkShift;
+    private final int chunkMask;
+    private ByteBuffer[] chunks;
+    private IntBuffer[] views;
+
+    private OffHeapImage(int width, int height, byte channels, byte colorSpace, int chunkPixels){
+        this.width = width;
+        this.height = height;
+        this.channels = channels;
+        this.colorSpace = colorSpace;
+        chunkShift = Integer.numberOfTrailingZeros(chunkPixels);
+        chunkMask = chunkPixels - 1;
+        long pixels = (long) width * height;
+        int count = (int) ((pixels + chunkPixels - 1) >> chunkShift);
+        chunks = new ByteBuffer[count];
+        views = new IntBuffer[count];
+        for (int i = 0; i < count; ++i){
+            long size = Math.min(chunkPixels, pixels - ((long) i << chunkShift));
+            chunks[i] = ByteBuffer.allocateDirect((int) size * QOISpecification.RGBA).order(ByteOrder.nativeOrder());
+            views[i] = chunks[i].asIntBuffer();
+        }
+    }
+
+    /**
+     * Allocate an image, its pixels being set to 0
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels of the image
+     * @param colorSpace (byte) - Color space of the image
+     * @return (OffHeapImage) - The image
+     * @throws AssertionError if the dimensions are not positive or the channels or the color space are invalid
+     */
+    public static OffHeapImage allocate(int width, int height, byte channels, byte colorSpace){
+        return allocate(width, height, channels, colorSpace, CHUNK_PIXELS);
+    }
+
+    /**
+     * Allocate an image stored in direct buffers of the given number of pixels, its pixels being set to 0
+     * @apiNote Small chunks let the tests cross the boundaries between chunks without allocating gigabytes
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels of the image
+     * @param colorSpace (byte) - Color space of the image
+     * @param chunkPixels (int) - Number of pixels of each direct buffer, a power of two
+     * @return (OffHeapImage) - The image
+     * @throws AssertionError if the dimensions are not positive, the channels or the color space are invalid
+     * or chunkPixels is not a power of two between 1 and {@link #CHUNK_PIXELS}
+     */
+    static OffHeapImage allocate(int width, int height, byte channels, byte colorSpace, int chunkPixels){
+        assert width > 0 && height > 0;
+        assert (channels == QOISpecification.RGB || channels == QOISpecification.RGBA) && (colorSpace == QOISpecification.sRGB || colorSpace == QOISpecification.ALL);
+        assert chunkPixels > 0 && chunkPixels <= CHUNK_PIXELS && Integer.bitCount(chunkPixels) == 1;
+        return new OffHeapImage(width, height, channels, colorSpace, chunkPixels);
+    }
+
+    // ==================================================================================
+    // ================================== ACCESSORS =====================================
+    // ==================================================================================
+
+    /**
+     * @return (int) - Width of the image
+     */
+    public int width(){
+        return width;
+    }
+
+    /**
+     * @return (int) - Height of the image
+     */
+    public int height(){
+        return height;
+    }
+
+    /**
+     * @return (long) - Number of pixels of the image
+     */
+    public long pixels(){
+        return (long) width * height;
+    }
+
+    /**
+     * @return (byte) - Number of channels of the image
+     */
+    public byte channels(){
+        return channels;
+    }
+
+    /**
+     * @return (byte) - Color space of the image
+     */
+    public byte colorSpace(){
+        return colorSpace;
+    }
+
+    /**
+     * @param index (long) - Index of the pixel (y * width + x)
+     * @return (int) - The ARGB pixel
+     * @throws AssertionError if the image is closed or the index is out of the image
+     */
+    public int get(long index){
+        assert views != null && index >= 0 && index < pixels();
+        return views[(int) (index >> chunkShift)].get((int) index & chunkMask);
+    }
+
+    /**
+     * @param index (long) - Index of the pixel (y * width + x)
+     * @param pixel (int) - The ARGB pixel
+     * @throws AssertionError if the image is closed or the index is out of the image
+     */
+    public void set(long index, int pixel){
+        assert views != null && index >= 0 && index < pixels();
+        views[(int) (index >> chunkShift)].put((int) index & chunkMask, pixel);
+    }
+
+    /**
+     * Copy a row of the image
+     * @param y (int) - Index of the row
+     * @param destination (int[]) - Array of at least width pixels where to copy the row
+     * @throws AssertionError if the image is closed, the row is out of the image or the destination is too small
+     */
+    public void row(int y, int[] destination){
+        assert views != null && y >= 0 && y < height && destination != null && destination.length >= width;
+        long index = (long) y * width;
+        int done = 0;
+        // A row may cross the boundary between two chunks
+        while (done < width){
+            int chunk = (int) (index >> chunkShift);
+            int position = (int) index & chunkMask;
+            int length = Math.min(width - done, views[chunk].capacity() - position);
+            views[chunk].get(position, destination, done, length);
+            done += length;
+            index += length;
+        }
+    }
+
+    /**
+     * Overwrite a row of the image
+     * @param y (int) - Index of the row
+     * @param source (int[]) - Array of at least width pixels holding the row
+     * @throws AssertionError if the image is closed, the row is out of the image or the source is too small
+     */
+    public void setRow(int y, int[] source){
+        assert views != null && y >= 0 && y < height && source != null && source.length >= width;
+        long index = (long) y * width;
+        int done = 0;
+        while (done < width){
+            int chunk = (int) (index >> chunkShift);
+            int position = (int) index & chunkMask;
+            int length = Math.min(width - done, views[chunk].capacity() - position);
+            views[chunk].put(position, source, done, length);
+            done += length;
+            index += length;
+        }
+    }
+
+    // ==================================================================================
+    // ================================== RELEASE =======================================
+    // ==================================================================================
+
+    /**
+     * Free the memory of the pixels now, instead of when the buffers are collected.
+     * Closing an image twice has no effect
+     */
+    @Override
+    public void close(){
+        ByteBuffer[] released = chunks;
+        chunks = null;
+        views = null;
+        if (released != null){
+            for (ByteBuffer chunk : released){
+                free(chunk);
+            }
+        }
+    }
+
+    private static void free(ByteBuffer buffer){
+        if (INVOKE_CLEANER != null){
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } catch (ReflectiveOperationException e){
+                // Left to the garbage collector
+            }
+        }
+    }
+
+}
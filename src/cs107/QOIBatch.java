@@ -0,0 +1,223 @@
+package cs107;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Batch conversion of a directory tree. Every "PNG" file is encoded to "QOI"
+ * and every "QOI" file is decoded to "PNG", the results being written in an
+ * output tree mirroring the input tree. Each file is converted by its own thread
+ * (a virtual thread when the JVM provides them) and at most a given number of
+ * files are converted at the same time. An optional {@link QOIEncodeCache} skips the
+ * encoding of the images it already holds and encodes identical images only once.
+ * @apiNote Run with "java -cp out cs107.QOIBatch input_dir output_dir [concurrency [cache_dir]]"
+ * @version 1.0
+ * @since 1.0
+ */
+public final class QOIBatch {
+
+    /**
+     * DO NOT CHANGE THIS, MORE ON THAT IN WEEK 7.
+     */
+    private QOIBatch(){}
+
+    private static final String PNG = ".png";
+
+    private static final String QOI = ".qoi";
+
+    /**
+     * Summary of a batch conversion
+     * @param files (int) - Number of converted files
+     * @param failures (int) - Number of files that could not be converted
+     * @param bytesIn (long) - Total size of the converted files
+     * @param bytesOut (long) - Total size of the generated files
+     * @param pngBytes (long) - Total size of the "PNG" files (read or written)
+     * @param qoiBytes (long) - Total size of the "QOI" files (read or written)
+     * @param nanos (long) - Duration of the conversion
+     */
+    public record Report(int files, int failures, long bytesIn, long bytesOut, long pngBytes, long qoiBytes, long nanos){
+
+        /**
+         * @return (double) - Number of converted files per second
+         */
+        public double filesPerSecond(){
+            return files * 1e9 / Math.max(1, nanos);
+        }
+
+        /**
+         * @return (double) - Compression ratio between the "PNG" and the "QOI" files (See Main::ratio)
+         */
+        public double ratio(){
+            return qoiBytes == 0 ? 0 : Main.ratio(pngBytes, qoiBytes);
+        }
+
+        @Override
+        public String toString(){
+            return String.format("%d files (%d failures) in %.3f s, %.1f files/s, %d bytes in, %d bytes out, ratio %.2f %%",
+                    files, failures, nanos / 1e9, filesPerSecond(), bytesIn, bytesOut, ratio());
+        }
+    }
+
+    /**
+     * Entry point of the batch conversion
+     * @param args (String[]) - Input directory, output directory and optional concurrency
+     */
+    public static void main(String[] args){
+        if (args.length < 2){
+            System.err.println("Usage : QOIBatch input_dir output_dir [concurrency [cache_dir]]");
+            return;
+        }
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        var cache = args.length > 3 ? new QOIEncodeCache(Path.of(args[3])) : null;
+        System.out.println(convert(Path.of(args[0]), Path.of(args[1]), concurrency, cache));
+        if (cache != null){
+            System.out.println(cache.stats());
+        }
+    }
+
+    /**
+     * Convert all the "PNG" and "QOI" files of a directory tree
+     * @param input (Path) - Root of the tree to convert
+     * @param output (Path) - Root of the tree where to write the results
+     * @param concurrency (int) - Maximum number of files converted at the same time
+     * @return (Report) - Summary of the conversion
+     * @throws AssertionError if one of the paths is null, input is not a directory
+     * or concurrency is not positive
+     */
+    public static Report convert(Path input, Path output, int concurrency){
+        return convert(input, output, concurrency, null);
+    }
+
+    /**
+     * Convert all the "PNG" and "QOI" files of a directory tree, the "PNG" files being
+     * encoded through the given cache
+     * @param input (Path) - Root of the tree to convert
+     * @param output (Path) - Root of the tree where to write the results
+     * @param concurrency (int) - Maximum number of files converted at the same time
+     * @param cache (QOIEncodeCache) - Cache of the encoded files, null to always encode
+     * @return (Report) - Summary of the conversion
+     * @throws AssertionError if one of the paths is null, input is not a directory
+     * or concurrency is not positive
+     */
+    public static Report convert(Path input, Path output, int concurrency, QOIEncodeCache cache){
+        assert input != null && output != null && Files.isDirectory(input) && concurrency > 0;
+        var files = new AtomicInteger();
+        var failures = new AtomicInteger();
+        var bytesIn = new AtomicLong();
+        var bytesOut = new AtomicLong();
+        var pngBytes = new AtomicLong();
+        var qoiBytes = new AtomicLong();
+        var permits = new Semaphore(concurrency);
+        long start = System.nanoTime();
+
+        var executor = newExecutor(concurrency);
+        try (Stream<Path> tree = Files.walk(input)){
+            for (var file : (Iterable<Path>) tree.filter(Files::isRegularFile).filter(QOIBatch::isSupported)::iterator){
+                permits.acquire();
+                executor.execute(() -> {
+                    try {
+                        long[] sizes = convertFile(file, target(input, output, file), cache);
+                        bytesIn.addAndGet(sizes[0]);
+                        bytesOut.addAndGet(sizes[1]);
+                        boolean encoded = hasExtension(file, PNG);
+                        pngBytes.addAndGet(encoded ? sizes[0] : sizes[1]);
+                        qoiBytes.addAndGet(encoded ? sizes[1] : sizes[0]);
+                        files.incrementAndGet();
+                    } catch (RuntimeException | IOException | AssertionError e){
+                        // A corrupted file fails an assertion: it must not end the batch unreported
+                        failures.incrementAndGet();
+                        System.err.printf("Cannot convert \"%s\" : %s%n", file, e);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        } catch (IOException | UncheckedIOException e){
+            // The iteration of the tree may fail after some files were submitted: let them finish first
+            awaitTermination(executor, input);
+            return Helper.fail("An error occurred while trying to walk : \"%s\"%n", input);
+        } catch (InterruptedException e){
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            return Helper.fail("The conversion of \"%s\" was interrupted%n", input);
+        }
+        awaitTermination(executor, input);
+        return new Report(files.get(), failures.get(), bytesIn.get(), bytesOut.get(), pngBytes.get(), qoiBytes.get(), System.nanoTime() - start);
+    }
+
+    /**
+     * Convert a single file
+     * @param source (Path) - File to convert
+     * @param target (Path) - Where to write the result
+     * @param cache (QOIEncodeCache) - Cache of the encoded files, null to always encode
+     * @return (long[]) - Size of the source and of the target
+     * @throws IOException if a file cannot be read or written
+     */
+    private static long[] convertFile(Path source, Path target, QOIEncodeCache cache) throws IOException {
+        Files.createDirectories(target.getParent());
+        if (hasExtension(source, PNG)){
+            var image = Helper.readImage(source.toString());
+            byte[] content = cache == null ? QOIEncoder.qoiFile(image) : cache.qoiFile(image);
+            Helper.write(target, ByteBuffer.wrap(content), true, false);
+        } else {
+            Helper.writeImage(target, QOIDecoder.decodeQoiFile(source));
+        }
+        return new long[]{Files.size(source), Files.size(target)};
+    }
+
+    /**
+     * Create the executor running the conversions: one virtual thread per task if
+     * the JVM supports them (Java 21 and later), a pool of platform threads otherwise
+     * @param concurrency (int) - Maximum number of files converted at the same time
+     * @return (ExecutorService) - The executor
+     */
+    private static ExecutorService newExecutor(int concurrency){
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e){
+            return Executors.newFixedThreadPool(concurrency);
+        }
+    }
+
+    /**
+     * Stop accepting conversions and wait for the submitted ones to end
+     * @param executor (ExecutorService) - Executor running the conversions
+     * @param input (Path) - Root of the tree being converted
+     */
+    private static void awaitTermination(ExecutorService executor, Path input){
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e){
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            Helper.fail("The conversion of \"%s\" was interrupted%n", input);
+        }
+    }
+
+    private static Path target(Path input, Path output, Path file){
+        var name = file.getFileName().toString();
+        var converted = name.substring(0, name.lastIndexOf('.')) + (hasExtension(file, PNG) ? QOI : PNG);
+        return output.resolve(input.relativize(file)).resolveSibling(converted);
+    }
+
+    private static boolean isSupported(Path file){
+        return hasExtension(file, PNG) || hasExtension(file, QOI);
+    }
+
+    private static boolean hasExtension(Path file, String extension){
+        var name = file.getFileName().toString();
+        return name.regionMatches(true, name.length() - extension.length(), extension, 0, extension.length());
+    }
+
+}
@@ -0,0 +1,306 @@
+package cs107;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Throughput benchmark of the "Quite Ok Image" codec over the images of the "references/" folder.
+ * The measures are run in several fresh JVMs (forks) so that one lucky or unlucky JIT
+ * compilation does not decide the result. In each fork, every operation is first run for a
+ * few warm-up iterations and then each measured iteration is timed. For each operation the
+ * benchmark prints the mean time and its standard deviation over all the measured iterations
+ * of all the forks, the throughput in MB/s (of raw pixels) and in pixels/s, the number of bytes
+ * allocated per operation and a checksum of the results (which keeps the JIT from removing
+ * the benchmarked code and must be the same on every run).
+ * @apiNote Run with "java -cp out cs107.QOIBenchmark [warmup] [iterations] [forks]" from the root
+ * of the project, 0 forks measuring in the current JVM
+ * @version 1.0
+ * @since 1.0
+ */
+public final class QOIBenchmark {
+
+    /**
+     * DO NOT CHANGE THIS, MORE ON THAT IN WEEK 7.
+     */
+    private QOIBenchmark(){}
+
+    /**
+     * Images used as fixtures
+     */
+    private static final String[] FIXTURES = {"beach", "dice", "cube", "EPFL", "random"};
+
+    private static final String REFERENCES = "references";
+
+    private static final String OUTPUT = "benchmark.png";
+
+    /**
+     * First argument of a forked JVM, followed by the number of warm-up and measured iterations
+     */
+    private static final String FORK = "--fork";
+
+    /**
+     * Prefix of the lines of results printed by a forked JVM
+     */
+    private static final String RESULT = "result";
+
+    /**
+     * Measure of the allocations of the current thread, null if the JVM cannot measure them
+     */
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS = allocations();
+
+    /**
+     * Consumes the results of the warm-up, which are not part of the checksum
+     */
+    private static volatile long sink;
+
+    /**
+     * Results of an operation on an image
+     */
+    private static final class Result {
+
+        private final List<Double> samples = new ArrayList<>();
+        private long pixels;
+        private long allocated = -1;
+        private long checksum;
+    }
+
+    /**
+     * Run the benchmark
+     * @param args (String[]) - Optional number of warm-up and measured iterations and of forks
+     */
+    public static void main(String[] args){
+        if (args.length == 3 && args[0].equals(FORK)){
+            measure(Integer.parseInt(args[1]), Integer.parseInt(args[2]), true);
+            return;
+        }
+        int warmup = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int forks = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        Map<String, Result> results = new LinkedHashMap<>();
+        if (forks == 0){
+            merge(results, measure(warmup, iterations, false));
+        }
+        for (int fork = 0; fork < forks; ++fork){
+            merge(results, fork(warmup, iterations));
+        }
+        print(results);
+    }
+
+    // ==================================================================================
+    // ================================== MEASURES ======================================
+    // ==================================================================================
+
+    /**
+     * Measure every operation on every fixture
+     * @param warmup (int) - Number of calls before the measure
+     * @param iterations (int) - Number of measured calls
+     * @param report (boolean) - true to print the results for the parent JVM
+     * @return (List<String>) - Results, one line per operation
+     */
+    private static List<String> measure(int warmup, int iterations, boolean report){
+        List<String> lines = new ArrayList<>();
+        for (var name : FIXTURES){
+            var png = REFERENCES + File.separator + name + ".png";
+            var qoi = REFERENCES + File.separator + name + ".qoi";
+            var image = Helper.readImage(png);
+            var content = Helper.read(qoi);
+            var channels = ArrayUtils.imageToChannels(image.data());
+            int height = image.data().length;
+            int width = image.data()[0].length;
+            long pixels = (long) width * height;
+
+            lines.add(run(name, "Helper.readImage", pixels, warmup, iterations, () -> Helper.readImage(png)));
+            lines.add(run(name, "Helper.writeImage", pixels, warmup, iterations, () -> {
+                Helper.writeImage(OUTPUT, image);
+                return image;
+            }));
+            lines.add(run(name, "imageToChannels", pixels, warmup, iterations, () -> ArrayUtils.imageToChannels(image.data())));
+            lines.add(run(name, "channelsToImage", pixels, warmup, iterations, () -> ArrayUtils.channelsToImage(channels, height, width)));
+            lines.add(run(name, "QOIEncoder.qoiFile", pixels, warmup, iterations, () -> QOIEncoder.qoiFile(image)));
+            lines.add(run(name, "QOIDecoder.decodeQoiFile", pixels, warmup, iterations, () -> QOIDecoder.decodeQoiFile(content)));
+        }
+        var output = new File("res" + File.separator + OUTPUT);
+        if (output.exists() && !output.delete()){
+            System.err.printf("Cannot delete '%s'%n", output);
+        }
+        if (report){
+            lines.forEach(System.out::println);
+        }
+        return lines;
+    }
+
+    /**
+     * Measure an operation
+     * @param image (String) - Name of the image
+     * @param operation (String) - Name of the operation
+     * @param pixels (long) - Number of pixels processed by one call of the operation
+     * @param warmup (int) - Number of calls before the measure
+     * @param iterations (int) - Number of measured calls
+     * @param task (Supplier<?>) - The operation
+     * @return (String) - Line of results: image, operation, pixels, allocated bytes per call
+     * (-1 if unknown), checksum and the time of each call in nanoseconds, separated by tabs
+     */
+    private static String run(String image, String operation, long pixels, int warmup, int iterations, Supplier<?> task){
+        long warm = 0;
+        for (int i = 0; i < warmup; ++i){
+            warm += consume(task.get());
+        }
+        sink = warm;
+        long checksum = 0;
+        long[] times = new long[iterations];
+        long allocated = allocatedBytes();
+        for (int i = 0; i < iterations; ++i){
+            long start = System.nanoTime();
+            checksum += consume(task.get());
+            times[i] = System.nanoTime() - start;
+        }
+        allocated = allocated < 0 ? -1 : (allocatedBytes() - allocated) / iterations;
+
+        var line = new StringBuilder(String.join("\t", RESULT, image, operation, Long.toString(pixels),
+                Long.toString(allocated), Long.toHexString(checksum)));
+        for (long time : times){
+            line.append('\t').append(time);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Run the measures in a new JVM with the same class path and options
+     * @param warmup (int) - Number of calls before the measure
+     * @param iterations (int) - Number of measured calls
+     * @return (List<String>) - Lines of results printed by the JVM
+     */
+    private static List<String> fork(int warmup, int iterations){
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.addAll(List.of("-cp", System.getProperty("java.class.path"), QOIBenchmark.class.getName(),
+                FORK, Integer.toString(warmup), Integer.toString(iterations)));
+        try {
+            Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            List<String> lines = new ArrayList<>();
+            try (var reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))){
+                for (String line = reader.readLine(); line != null; line = reader.readLine()){
+                    if (line.startsWith(RESULT + "\t")){
+                        lines.add(line);
+                    }
+                }
+            }
+            if (process.waitFor() != 0){
+                Helper.fail("The forked JVM failed with exit code %d", process.exitValue());
+            }
+            return lines;
+        } catch (IOException e){
+            return Helper.fail("Cannot start the forked JVM '%s'", command.get(0));
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            return Helper.fail("Interrupted while waiting for the forked JVM");
+        }
+    }
+
+    // ==================================================================================
+    // =================================== RESULTS ======================================
+    // ==================================================================================
+
+    /**
+     * Add lines of results to the results of each operation
+     * @param results (Map<String, Result>) - Results by image and operation
+     * @param lines (List<String>) - Lines of results as returned by {@link #run}
+     */
+    private static void merge(Map<String, Result> results, List<String> lines){
+        for (var line : lines){
+            String[] fields = line.split("\t");
+            Result result = results.computeIfAbsent(fields[1] + "\t" + fields[2], key -> new Result());
+            result.pixels = Long.parseLong(fields[3]);
+            result.allocated = Math.max(result.allocated, Long.parseLong(fields[4]));
+            long checksum = Long.parseUnsignedLong(fields[5], 16);
+            if (!result.samples.isEmpty() && checksum != result.checksum){
+                System.err.printf("%s: the checksum differs between two runs%n", fields[1] + " " + fields[2]);
+            }
+            result.checksum = checksum;
+            for (int i = 6; i < fields.length; ++i){
+                result.samples.add(Long.parseLong(fields[i]) / 1e9);
+            }
+        }
+    }
+
+    /**
+     * Print the mean and the standard deviation of each operation
+     * @param results (Map<String, Result>) - Results by image and operation
+     */
+    private static void print(Map<String, Result> results){
+        System.out.printf("%-8s %-26s %18s %10s %12s %14s %18s%n", "image", "operation", "ms/op", "MB/s", "Mpixels/s", "alloc B/op", "checksum");
+        for (var entry : results.entrySet()){
+            String[] names = entry.getKey().split("\t");
+            Result result = entry.getValue();
+            double mean = 0;
+            for (double sample : result.samples){
+                mean += sample;
+            }
+            mean /= result.samples.size();
+            double variance = 0;
+            for (double sample : result.samples){
+                variance += (sample - mean) * (sample - mean);
+            }
+            double deviation = result.samples.size() > 1 ? Math.sqrt(variance / (result.samples.size() - 1)) : 0;
+            double megabytes = result.pixels * QOISpecification.RGBA / 1e6;
+            System.out.printf("%-8s %-26s %18s %10.1f %12.2f %14s %18s%n", names[0], names[1],
+                    String.format("%.3f +- %.3f", mean * 1e3, deviation * 1e3), megabytes / mean, result.pixels / 1e6 / mean,
+                    result.allocated < 0 ? "n/a" : Long.toString(result.allocated), Long.toHexString(result.checksum));
+        }
+    }
+
+    // ==================================================================================
+    // ================================ HELPER METHODS ==================================
+    // ==================================================================================
+
+    /**
+     * Reduce the result of an operation to a number, so that the JIT cannot drop the operation
+     * @param result (Object) - Result of the operation
+     * @return (long) - Number depending on the content of the result
+     */
+    private static long consume(Object result){
+        if (result instanceof byte[] bytes){
+            return bytes.length == 0 ? 0 : bytes.length * 31L + bytes[0] + bytes[bytes.length - 1] * 17L;
+        } else if (result instanceof int[][] pixels){
+            int[] last = pixels[pixels.length - 1];
+            return pixels.length * 31L + pixels[0][0] + last[last.length - 1] * 17L;
+        } else if (result instanceof byte[][] channels){
+            byte[] last = channels[channels.length - 1];
+            return channels.length * 31L + channels[0][0] + last[last.length - 1] * 17L;
+        } else if (result instanceof Helper.Image image){
+            return consume(image.data());
+        }
+        return result == null ? 0 : result.hashCode();
+    }
+
+    /**
+     * @return (com.sun.management.ThreadMXBean) - Measure of the allocations, null if the JVM
+     * does not support it or it is disabled
+     */
+    private static com.sun.management.ThreadMXBean allocations(){
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                && bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()){
+            return bean;
+        }
+        return null;
+    }
+
+    /**
+     * @return (long) - Number of bytes allocated by the current thread, -1 if the JVM cannot measure it
+     */
+    private static long allocatedBytes(){
+        return ALLOCATIONS == null ? -1 : ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+}
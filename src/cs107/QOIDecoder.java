@@ -1,5 +1,14 @@
 package cs107;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
 import static cs107.Helper.Image;
 import static cs107.Helper.generateImage;
 
@@ -28,8 +37,12 @@ public final class QOIDecoder {
      * @throws AssertionError See handouts section 6.1
      */
     public static int[] decodeHeader(byte[] header){
+        var event = new QOIEvents.Header();
+        event.begin();
         assert header != null && header.length == QOISpecification.HEADER_SIZE && ArrayUtils.equals(ArrayUtils.extract(header, 0, 4), QOISpecification.QOI_MAGIC) && (header[12] == QOISpecification.RGB || header[12] == QOISpecification.RGBA) && (header[13] == QOISpecification.ALL || header[13] == QOISpecification.sRGB);
-        return new int[]{ArrayUtils.toInt(ArrayUtils.extract(header, 4, 4)), ArrayUtils.toInt(ArrayUtils.extract(header, 8, 4)), header[12], header[13]};
+        int[] info = new int[]{ArrayUtils.toInt(ArrayUtils.extract(header, 4, 4)), ArrayUtils.toInt(ArrayUtils.extract(header, 8, 4)), header[12], header[13]};
+        event.end(info[0], info[1], info[2], header.length, 0);
+        return info;
     }
 
     // ==================================================================================
@@ -136,6 +149,7 @@ public final class QOIDecoder {
 
     /**
      * Decode the given data using the "Quite Ok Image" Protocol
+     * @apiNote The data is decoded by the table driven packed decoder, then each pixel is split in its channels
      * @param data (byte[]) - Data to decode
      * @param width (int) - The width of the expected output
      * @param height (int) - The height of the expected output
@@ -143,41 +157,249 @@ public final class QOIDecoder {
      * @throws AssertionError See handouts section 6.3
      */
     public static byte[][] decodeData(byte[] data, int width, int height){
+        var event = new QOIEvents.Decode();
+        event.begin();
         assert data != null && width > 0 && height >0;
-        byte[][] decoded = new byte[height * width][4];
-        byte[] previousPixel = QOISpecification.START_PIXEL;
-        byte[][] hashTable = new byte[64][4];
-        int idx = 0;
-        int position = 0;
-        byte tag = 0;
-        hashTable[QOISpecification.hash(previousPixel)] = previousPixel;
-        while (idx < data.length){
-            if (data[idx] == QOISpecification.QOI_OP_RGB_TAG){
-                idx += decodeQoiOpRGB(decoded, data, previousPixel[3], position, idx + 1);
-            } else if (data[idx] == QOISpecification.QOI_OP_RGBA_TAG) {
-                idx += decodeQoiOpRGBA(decoded, data, position, idx + 1);
-            } else{
-                tag = maskQoiTag(data[idx]);
-                if (tag == maskQoiTag(QOISpecification.QOI_OP_DIFF_TAG)){
-                    decoded[position] = decodeQoiOpDiff(previousPixel, data[idx]);
-                } else if (tag == maskQoiTag(QOISpecification.QOI_OP_LUMA_TAG)) {
-                    decoded[position] = decodeQoiOpLuma(previousPixel, ArrayUtils.extract(data, idx, 2));
-                    idx += 1;
-                } else if (tag == maskQoiTag(QOISpecification.QOI_OP_RUN_TAG)) {
-                    position += decodeQoiOpRun(decoded, previousPixel, data[idx], position);
-                } else if (tag == maskQoiTag(QOISpecification.QOI_OP_INDEX_TAG)) {
-                    decoded[position] = hashTable[data[idx]];
+        int[] pixels = new int[Math.multiplyExact(width, height)];
+        State state = new State();
+        int idx = decodePixels(state, data, 0, data.length, pixels, pixels.length);
+        assert idx == data.length && state.position == pixels.length && state.run == 0;
+        byte[][] decoded = new byte[pixels.length][];
+        for (int i = 0; i < pixels.length; ++i){
+            int pixel = pixels[i];
+            decoded[i] = new byte[]{(byte) (pixel >> 16), (byte) (pixel >> 8), (byte) pixel, (byte) (pixel >>> 24)};
+        }
+        event.end(width, height, QOISpecification.RGBA, data.length, (long) decoded.length * QOISpecification.RGBA);
+        return decoded;
+    }
+
+    /**
+     * Decode the given data using the "Quite Ok Image" Protocol into packed pixels
+     * @apiNote Produces the same pixels as {@link #decodeData(byte[], int, int)} without
+     * allocating a byte[] per pixel
+     * @param data (byte[]) - Data to decode
+     * @param width (int) - The width of the expected output
+     * @param height (int) - The height of the expected output
+     * @return (int[]) - ARGB pixels of the decoded image stored row after row
+     * @throws AssertionError See handouts section 6.3
+     */
+    public static int[] decodePixels(byte[] data, int width, int height){
+        assert data != null && width > 0 && height > 0;
+        int[] pixels = new int[Math.multiplyExact(width, height)];
+        decodePixels(data, 0, data.length, pixels);
+        return pixels;
+    }
+
+    /**
+     * Decode a range of the given data using the "Quite Ok Image" Protocol into packed pixels
+     * @param data (byte[]) - Array containing the data to decode
+     * @param offset (int) - Index of the first byte to decode
+     * @param length (int) - Number of bytes to decode
+     * @param pixels (int[]) - Buffer where to store the ARGB pixels, its length is the number of expected pixels
+     * @throws AssertionError if one of the arrays is null, the range is invalid
+     * or the data does not contain exactly pixels.length pixels
+     */
+    public static void decodePixels(byte[] data, int offset, int length, int[] pixels){
+        var event = new QOIEvents.Decode();
+        event.begin();
+        assert data != null && pixels != null && offset >= 0 && length >= 0 && offset + length <= data.length;
+        State state = new State();
+        int idx = decodePixels(state, data, offset, offset + length, pixels, pixels.length);
+        assert idx == offset + length && state.position == pixels.length && state.run == 0;
+        event.end(pixels.length, QOISpecification.RGBA, length, (long) pixels.length * QOISpecification.RGBA);
+    }
+
+    // ==================================================================================
+    // =============================== DISPATCH TABLES ==================================
+    // ==================================================================================
+
+    // The operation codes follow the order of QOIStatistics.Op
+    private static final byte OP_INDEX = 0;
+    private static final byte OP_DIFF = 1;
+    private static final byte OP_LUMA = 2;
+    private static final byte OP_RUN = 3;
+    private static final byte OP_RGB = 4;
+    private static final byte OP_RGBA = 5;
+
+    /**
+     * Operation of each tag (first byte of a chunk, unsigned)
+     */
+    private static final byte[] OPS = new byte[256];
+
+    /**
+     * Size of the chunk starting with each tag
+     */
+    private static final byte[] SIZES = new byte[256];
+
+    /**
+     * Packed differences of each QOI_OP_DIFF (indexed by the 6 lower bits of the tag)
+     */
+    private static final int[] DIFF_DELTAS = new int[64];
+
+    /**
+     * Packed green difference added to every channel by each QOI_OP_LUMA (indexed by the 6 lower bits of the tag)
+     */
+    private static final int[] LUMA_GREEN_DELTAS = new int[64];
+
+    /**
+     * Packed red and blue differences relative to green of each QOI_OP_LUMA (indexed by its second byte)
+     */
+    private static final int[] LUMA_RED_BLUE_DELTAS = new int[256];
+
+    static {
+        for (int tag = 0; tag < 256; ++tag){
+            OPS[tag] = switch (tag >> 6){
+                case 0b00 -> OP_INDEX;
+                case 0b01 -> OP_DIFF;
+                case 0b10 -> OP_LUMA;
+                default -> OP_RUN;
+            };
+            SIZES[tag] = (byte) (OPS[tag] == OP_LUMA ? 2 : 1);
+            LUMA_RED_BLUE_DELTAS[tag] = packDelta((tag >> 4) - 8, 0, (tag & 0b1111) - 8);
+        }
+        OPS[QOISpecification.QOI_OP_RGB_TAG & 0xFF] = OP_RGB;
+        SIZES[QOISpecification.QOI_OP_RGB_TAG & 0xFF] = 4;
+        OPS[QOISpecification.QOI_OP_RGBA_TAG & 0xFF] = OP_RGBA;
+        SIZES[QOISpecification.QOI_OP_RGBA_TAG & 0xFF] = 5;
+        for (int bits = 0; bits < 64; ++bits){
+            DIFF_DELTAS[bits] = packDelta(((bits >> 4) & 0b11) - 2, ((bits >> 2) & 0b11) - 2, (bits & 0b11) - 2);
+            LUMA_GREEN_DELTAS[bits] = packDelta(bits - 32, bits - 32, bits - 32);
+        }
+    }
+
+    /**
+     * Decoding state carried from one chunk to the next
+     * (previous pixel, index table, pixels of a run still to be written
+     * and position in the output buffer)
+     */
+    static final class State {
+
+        final int[] hashTable = new int[64];
+        int previousPixel;
+        int run;
+        int position;
+        int[] scratch;
+
+        State(){
+            reset();
+        }
+
+        /**
+         * Reset the state as it is before the first chunk of an image
+         */
+        void reset(){
+            Arrays.fill(hashTable, 0);
+            previousPixel = QOISpecification.START_PIXEL_ARGB;
+            hashTable[QOISpecification.hash(previousPixel)] = previousPixel;
+            run = 0;
+            position = 0;
+        }
+    }
+
+    /**
+     * Decode the chunks found in a range of the data, continuing from the given state.
+     * The decoding stops when the output buffer holds limit pixels or when the
+     * next chunk is not entirely contained in the range
+     * @param state (State) - Decoding state, updated by this call
+     * @param data (byte[]) - Array containing the data to decode
+     * @param from (int) - Index of the first byte to decode
+     * @param to (int) - Index after the last available byte
+     * @param pixels (int[]) - Buffer where to store the ARGB pixels, starting at state.position,
+     * null to only parse the chunks and count the pixels in state.position
+     * @param limit (int) - Index in the buffer after the last pixel to write
+     * @return (int) - Index of the first byte that was not consumed
+     */
+    static int decodePixels(State state, byte[] data, int from, int to, int[] pixels, int limit){
+        int[] hashTable = state.hashTable;
+        int previousPixel = state.previousPixel;
+        int position = state.position;
+        int idx = from;
+
+        // Finish the run interrupted by the end of the previous output buffer
+        int pending = Math.min(state.run, limit - position);
+        if (pixels != null){
+            Arrays.fill(pixels, position, position + pending, previousPixel);
+        }
+        position += pending;
+        state.run -= pending;
+
+        while (position < limit && idx < to){
+            int chunk = data[idx] & 0xFF;
+            int size = SIZES[chunk];
+            if (to - idx < size){
+                break;
+            }
+            switch (OPS[chunk]){
+                case OP_INDEX -> previousPixel = hashTable[chunk];
+                case OP_DIFF -> previousPixel = addDelta(previousPixel, DIFF_DELTAS[chunk & 0b0011_1111]);
+                case OP_LUMA -> previousPixel = addDelta(addDelta(previousPixel, LUMA_GREEN_DELTAS[chunk & 0b0011_1111]), LUMA_RED_BLUE_DELTAS[data[idx + 1] & 0xFF]);
+                case OP_RUN -> {
+                    // The run may not fit in the output, the rest is written by the next call
+                    int count = (chunk & 0b0011_1111) + 1;
+                    int written = Math.min(count, limit - position);
+                    if (pixels != null){
+                        Arrays.fill(pixels, position, position + written, previousPixel);
+                    }
+                    position += written;
+                    state.run = count - written;
+                    idx += size;
+                    continue;
                 }
+                case OP_RGB -> previousPixel = (previousPixel & 0xFF_00_00_00) | (data[idx + 1] & 0xFF) << 16 | (data[idx + 2] & 0xFF) << 8 | (data[idx + 3] & 0xFF);
+                default -> previousPixel = (data[idx + 4] & 0xFF) << 24 | (data[idx + 1] & 0xFF) << 16 | (data[idx + 2] & 0xFF) << 8 | (data[idx + 3] & 0xFF);
             }
-            idx += 1;
-            previousPixel = decoded[position];
-            if (!ArrayUtils.equals(previousPixel, hashTable[QOISpecification.hash(previousPixel)])){
-                hashTable[QOISpecification.hash(previousPixel)] = previousPixel;
+            idx += size;
+            if (pixels != null){
+                pixels[position] = previousPixel;
             }
-            position += 1;
+            ++position;
+            hashTable[QOISpecification.hash(previousPixel)] = previousPixel;
         }
-        assert position == decoded.length;
-        return decoded;
+        state.previousPixel = previousPixel;
+        state.position = position;
+        return idx;
+    }
+
+    /**
+     * Number of bytes used by a chunk, including its tag
+     * @param tag (int) - First byte of the chunk (unsigned)
+     * @return (int) - Size of the chunk
+     */
+    static int chunkSize(int tag){
+        return SIZES[tag];
+    }
+
+    /**
+     * Operation of a chunk
+     * @param tag (int) - First byte of the chunk (unsigned)
+     * @return (int) - Operation code of the chunk, the ordinal of its {@link QOIStatistics.Op}
+     */
+    static int op(int tag){
+        return OPS[tag];
+    }
+
+    /**
+     * Add a packed difference to each color channel of a packed pixel, each channel wrapping around
+     * @apiNote Red and blue are added together, the carry of each one falling in a masked out byte
+     * @param pixel (int) - ARGB packed pixel
+     * @param delta (int) - Differences of the red, green and blue channels (modulo 256), packed as a pixel
+     * @return (int) - The new ARGB packed pixel (alpha is kept)
+     */
+    private static int addDelta(int pixel, int delta){
+        return (pixel & 0xFF_00_00_00)
+                | ((pixel & 0x00_FF_00_FF) + (delta & 0x00_FF_00_FF)) & 0x00_FF_00_FF
+                | ((pixel & 0x00_00_FF_00) + (delta & 0x00_00_FF_00)) & 0x00_00_FF_00;
+    }
+
+    /**
+     * Pack the differences of the color channels as a pixel (each one modulo 256)
+     * @param dr (int) - Difference on the red channel
+     * @param dg (int) - Difference on the green channel
+     * @param db (int) - Difference on the blue channel
+     * @return (int) - Packed differences
+     */
+    private static int packDelta(int dr, int dg, int db){
+        return (dr & 0xFF) << 16 | (dg & 0xFF) << 8 | (db & 0xFF);
     }
 
     /**
@@ -199,11 +421,427 @@ public final class QOIDecoder {
     public static Image decodeQoiFile(byte[] content){
         assert content != null && ArrayUtils.equals(ArrayUtils.extract(content, content.length - 8, 8), QOISpecification.QOI_EOF);
         int[] headerInfo = decodeHeader(ArrayUtils.extract(content, 0, QOISpecification.HEADER_SIZE));
-        int a = 0;
-        byte[][] decoded = decodeData(ArrayUtils.extract(content, QOISpecification.HEADER_SIZE, content.length - (QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length)), headerInfo[0], headerInfo[1]);
-        int[][] imageArray = ArrayUtils.channelsToImage(decoded, headerInfo[1], headerInfo[0]);
+        var event = new QOIEvents.Decode();
+        event.begin();
+        int[] decoded = new int[Math.multiplyExact(headerInfo[0], headerInfo[1])];
+        int end = content.length - QOISpecification.QOI_EOF.length;
+        State state = new State();
+        int idx = decodePixels(state, content, QOISpecification.HEADER_SIZE, end, decoded, decoded.length);
+        assert idx == end && state.position == decoded.length && state.run == 0;
+        event.end(headerInfo[0], headerInfo[1], headerInfo[2], content.length, (long) decoded.length * QOISpecification.RGBA);
+        int[][] imageArray = ArrayUtils.pixelsToImage(decoded, headerInfo[1], headerInfo[0]);
         Image im = generateImage(imageArray, (byte) headerInfo[2], (byte) headerInfo[3]);
         return im;
     }
 
-}
\ No newline at end of file
+    /**
+     * Decode a file using the "Quite Ok Image" Protocol in a flat image
+     * @param content (byte[]) - Content of the file to decode
+     * @return (FlatImage) - Decoded image, its pixels stored in a single array
+     * @throws AssertionError if content is null or corrupted
+     */
+    public static FlatImage decodeFlatImage(byte[] content){
+        long dimensions = checkFile(content);
+        int[] pixels = new int[Math.multiplyExact(width(dimensions), height(dimensions))];
+        decodeQoiFile(new State(), content, pixels);
+        return FlatImage.wrap(pixels, width(dimensions), height(dimensions), content[12], content[13]);
+    }
+
+    /**
+     * Decode a file using the "Quite Ok Image" Protocol outside of the Java heap.
+     * The file is read and decoded one row at a time, so neither the file nor the image
+     * is limited to Integer.MAX_VALUE bytes
+     * @param path (Path) - Path of the file to decode
+     * @return (OffHeapImage) - Decoded image, to be closed by the caller
+     * @throws AssertionError if path is null or the content is corrupted
+     */
+    public static OffHeapImage decodeOffHeap(Path path){
+        assert path != null;
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ);
+             var decoder = new QOIStreamDecoder(channel)){
+            var image = OffHeapImage.allocate(decoder.width(), decoder.height(), decoder.channels(), decoder.colorSpace());
+            try {
+                decoder.readRows((row, y) -> image.setRow(y, row));
+            } catch (IOException | RuntimeException | Error e){
+                image.close();
+                throw e;
+            }
+            return image;
+        } catch (IOException e){
+            return Helper.fail("An error occurred while trying to read from : \"%s\"%n", path);
+        }
+    }
+
+    /**
+     * Decode a file using the "Quite Ok Image" Protocol and add its operations to the given collector
+     * @param content (byte[]) - Content of the file to decode
+     * @param collector (QOIStatistics.Collector) - Collector of the operations
+     * @return (Image) - Decoded image
+     * @throws AssertionError if content or collector is null
+     */
+    public static Image decodeQoiFile(byte[] content, QOIStatistics.Collector collector){
+        assert collector != null;
+        Image image = decodeQoiFile(content);
+        collector.acceptFile(content);
+        return image;
+    }
+
+    /**
+     * Decode a file using the "Quite Ok Image" Protocol.
+     * The file is mapped in memory and decoded through a small window,
+     * its content is never loaded as a whole
+     * @param path (Path) - Path of the file to decode
+     * @return (Image) - Decoded image
+     * @throws AssertionError if path is null or the content is corrupted
+     */
+    public static Image decodeQoiFile(Path path){
+        assert path != null;
+        var event = new QOIEvents.Decode();
+        event.begin();
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)){
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE){
+                return Helper.fail("The file \"%s\" is too large to be mapped (%d bytes)%n", path, size);
+            }
+            MappedByteBuffer content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int end = (int) size - QOISpecification.QOI_EOF.length;
+            assert end >= QOISpecification.HEADER_SIZE && content.slice(end, QOISpecification.QOI_EOF.length).equals(ByteBuffer.wrap(QOISpecification.QOI_EOF));
+            byte[] header = new byte[QOISpecification.HEADER_SIZE];
+            content.get(0, header);
+            int[] headerInfo = decodeHeader(header);
+            int[][] imageArray = new int[headerInfo[1]][];
+            State state = new State();
+            // The mapped bytes are copied window by window and decoded by the array decoder,
+            // a chunk cut by the end of the window is moved to its start before the next copy
+            byte[] window = new byte[QOIStreamDecoder.DEFAULT_BUFFER_SIZE];
+            int next = QOISpecification.HEADER_SIZE;
+            int idx = 0;
+            int available = 0;
+            for (int row = 0; row < imageArray.length; ++row){
+                imageArray[row] = new int[headerInfo[0]];
+                state.position = 0;
+                idx = decodePixels(state, window, idx, available, imageArray[row], headerInfo[0]);
+                while (state.position < headerInfo[0] && next < end){
+                    available -= idx;
+                    System.arraycopy(window, idx, window, 0, available);
+                    int length = Math.min(window.length - available, end - next);
+                    content.get(next, window, available, length);
+                    next += length;
+                    available += length;
+                    idx = decodePixels(state, window, 0, available, imageArray[row], headerInfo[0]);
+                }
+                assert state.position == headerInfo[0] : "The data ends before the last pixel";
+            }
+            assert next == end && idx == available && state.run == 0;
+            event.end(headerInfo[0], headerInfo[1], headerInfo[2], size, (long) headerInfo[0] * headerInfo[1] * QOISpecification.RGBA);
+            return generateImage(imageArray, (byte) headerInfo[2], (byte) headerInfo[3]);
+        } catch (IOException e){
+            return Helper.fail("An error occurred while trying to read from : \"%s\"%n", path);
+        }
+    }
+
+    // ==================================================================================
+    // ============================== PARTIAL DECODING ==================================
+    // ==================================================================================
+
+    /**
+     * Decode only the first rows of a "Quite Ok Image" file
+     * @param content (byte[]) - Content of the file to decode
+     * @param rows (int) - Number of rows to decode
+     * @return (Image) - Image made of the first rows of the file
+     * @throws AssertionError if content is null or corrupted or rows is not between 1 and the height of the image
+     */
+    public static Image decodeFirstRows(byte[] content, int rows){
+        return decodeRows(content, 0, rows);
+    }
+
+    /**
+     * Decode a band of rows of a "Quite Ok Image" file.
+     * The chunks of the rows before the band are parsed to follow the state of the decoder,
+     * but their pixels are never stored, and the decoding stops after the last row of the band.
+     * Only the pixels of the band are allocated
+     * @param content (byte[]) - Content of the file to decode
+     * @param firstRow (int) - Index of the first row of the band
+     * @param rowCount (int) - Number of rows of the band
+     * @return (Image) - Image made of the rows of the band
+     * @throws AssertionError if content is null or corrupted or the band is not inside the image
+     */
+    public static Image decodeRows(byte[] content, int firstRow, int rowCount){
+        long dimensions = checkFile(content);
+        int width = width(dimensions);
+        assert firstRow >= 0 && rowCount > 0 && firstRow + rowCount <= height(dimensions);
+        int end = content.length - QOISpecification.QOI_EOF.length;
+        State state = new State();
+        int idx = skipPixels(state, content, QOISpecification.HEADER_SIZE, end, (long) firstRow * width);
+        int[][] imageArray = new int[rowCount][];
+        for (int row = 0; row < rowCount; ++row){
+            imageArray[row] = new int[width];
+            state.position = 0;
+            idx = decodePixels(state, content, idx, end, imageArray[row], width);
+            assert state.position == width : "The data ends before the last pixel";
+        }
+        return generateImage(imageArray, content[12], content[13]);
+    }
+
+    /**
+     * Parse the chunks standing for the given number of pixels without storing the pixels.
+     * The previous pixel and the index table are updated as by a decoding, runs are skipped at once
+     * and the part of a run going beyond the skipped pixels is kept in state.run
+     * @param state (State) - Decoding state, updated by this call
+     * @param data (byte[]) - Array containing the data to parse
+     * @param from (int) - Index of the first byte to parse
+     * @param to (int) - Index after the last available byte
+     * @param count (long) - Number of pixels to skip
+     * @return (int) - Index of the first byte that was not consumed
+     * @throws AssertionError if the data ends before count pixels
+     */
+    static int skipPixels(State state, byte[] data, int from, int to, long count){
+        int position = state.position;
+        int idx = from;
+        // The pixels are counted in state.position, hence at most Integer.MAX_VALUE at a time
+        while (count > 0){
+            int step = (int) Math.min(count, Integer.MAX_VALUE);
+            state.position = 0;
+            idx = decodePixels(state, data, idx, to, null, step);
+            count -= state.position;
+            if (state.position < step){
+                break;
+            }
+        }
+        state.position = position;
+        assert count == 0 : "The data ends before the last pixel";
+        return idx;
+    }
+
+    // ==================================================================================
+    // ============================= DOWNSCALED DECODING ================================
+    // ==================================================================================
+
+    /**
+     * Decode a "Quite Ok Image" file into an image smaller by the given factor.
+     * Each output pixel is the average (box filter) of a factor x factor block of the file,
+     * the blocks on the right and bottom borders being averaged over the pixels they contain.
+     * The file is decoded one row at a time into the sums of the current output row,
+     * so the full resolution image is never allocated
+     * @param content (byte[]) - Content of the file to decode
+     * @param factor (int) - Scale factor, 1, 2, 4 or 8
+     * @return (Image) - Decoded image, of size ceil(width / factor) x ceil(height / factor)
+     * @throws AssertionError if content is null or corrupted or factor is not supported
+     */
+    public static Image decodeScaled(byte[] content, int factor){
+        assert factor == 1 || factor == 2 || factor == 4 || factor == 8;
+        long dimensions = checkFile(content);
+        int width = width(dimensions);
+        int height = height(dimensions);
+        int scaledWidth = (width + factor - 1) / factor;
+        int scaledHeight = (height + factor - 1) / factor;
+        int end = content.length - QOISpecification.QOI_EOF.length;
+
+        int[][] imageArray = new int[scaledHeight][];
+        int[] row = new int[width];
+        // Sums of the A, R, G and B channels of each block of the current output row
+        int[] sums = new int[scaledWidth * 4];
+        int shift = Integer.numberOfTrailingZeros(factor);
+        State state = new State();
+        int idx = QOISpecification.HEADER_SIZE;
+        for (int y = 0; y < height; ++y){
+            state.position = 0;
+            idx = decodePixels(state, content, idx, end, row, width);
+            assert state.position == width : "The data ends before the last pixel";
+            for (int x = 0; x < width; ++x){
+                int pixel = row[x];
+                int sum = (x >> shift) << 2;
+                sums[sum] += pixel >>> 24;
+                sums[sum + 1] += (pixel >> 16) & 0xFF;
+                sums[sum + 2] += (pixel >> 8) & 0xFF;
+                sums[sum + 3] += pixel & 0xFF;
+            }
+            if ((y + 1) % factor == 0 || y == height - 1){
+                int rows = y % factor + 1;
+                imageArray[y / factor] = averageBlocks(sums, width, factor, rows);
+                Arrays.fill(sums, 0);
+            }
+        }
+        assert idx == end && state.run == 0;
+        return generateImage(imageArray, content[12], content[13]);
+    }
+
+    /**
+     * Divide the sums of each block by its number of pixels
+     * @param sums (int[]) - Sums of the A, R, G and B channels of each block
+     * @param width (int) - Width of the full resolution image
+     * @param factor (int) - Scale factor
+     * @param rows (int) - Number of rows summed in each block
+     * @return (int[]) - ARGB pixels of the output row
+     */
+    private static int[] averageBlocks(int[] sums, int width, int factor, int rows){
+        int[] pixels = new int[sums.length / 4];
+        for (int i = 0; i < pixels.length; ++i){
+            int count = Math.min(factor, width - i * factor) * rows;
+            int half = count / 2;
+            int sum = i * 4;
+            pixels[i] = (sums[sum] + half) / count << 24
+                    | (sums[sum + 1] + half) / count << 16
+                    | (sums[sum + 2] + half) / count << 8
+                    | (sums[sum + 3] + half) / count;
+        }
+        return pixels;
+    }
+
+    // ==================================================================================
+    // ========================= ZERO-ALLOCATION DECODING ===============================
+    // ==================================================================================
+
+    /**
+     * Decoding state and scratch row of each thread, reused by the decoding methods
+     * writing in buffers given by the caller
+     */
+    private static final ThreadLocal<State> STATES = ThreadLocal.withInitial(State::new);
+
+    /**
+     * Number of pixels decoded at once before being copied in a ByteBuffer
+     */
+    private static final int SCRATCH_SIZE = 1 << 12;
+
+    /**
+     * Decode a file using the "Quite Ok Image" Protocol in the given buffer.
+     * Once the JIT has compiled it, this method does not allocate anything
+     * @param content (byte[]) - Content of the file to decode
+     * @param pixels (int[]) - Buffer where to store the ARGB pixels row after row, it must hold width * height pixels
+     * @return (long) - Dimensions of the image, see {@link #width(long)} and {@link #height(long)}
+     * @throws AssertionError if one of the arrays is null, the content is corrupted or the buffer is too small
+     */
+    public static long decodeQoiFile(byte[] content, int[] pixels){
+        return decodeQoiFile(STATES.get(), content, pixels);
+    }
+
+    /**
+     * Decode a file using the "Quite Ok Image" Protocol in the given buffer, using the given state
+     * @param state (State) - Decoding state, reset by this call
+     * @param content (byte[]) - Content of the file to decode
+     * @param pixels (int[]) - Buffer where to store the ARGB pixels row after row, it must hold width * height pixels
+     * @return (long) - Dimensions of the image, see {@link #width(long)} and {@link #height(long)}
+     */
+    static long decodeQoiFile(State state, byte[] content, int[] pixels){
+        assert pixels != null;
+        long dimensions = checkFile(content);
+        int count = Math.multiplyExact(width(dimensions), height(dimensions));
+        assert pixels.length >= count;
+        state.reset();
+        int end = content.length - QOISpecification.QOI_EOF.length;
+        int idx = decodePixels(state, content, QOISpecification.HEADER_SIZE, end, pixels, count);
+        assert idx == end && state.position == count && state.run == 0;
+        return dimensions;
+    }
+
+    /**
+     * Decode a file using the "Quite Ok Image" Protocol in the given buffer.
+     * The pixels are written as 4 bytes R, G, B, A from the position of the buffer,
+     * and the position is moved after the last pixel.
+     * Once the JIT has compiled it, this method does not allocate anything
+     * @param content (byte[]) - Content of the file to decode
+     * @param pixels (ByteBuffer) - Buffer where to store the RGBA pixels row after row,
+     * it must have width * height * 4 bytes remaining
+     * @return (long) - Dimensions of the image, see {@link #width(long)} and {@link #height(long)}
+     * @throws AssertionError if one of the parameters is null, the content is corrupted or the buffer is too small
+     */
+    public static long decodeQoiFile(byte[] content, ByteBuffer pixels){
+        return decodeQoiFile(STATES.get(), content, pixels);
+    }
+
+    /**
+     * Decode a file using the "Quite Ok Image" Protocol in the given buffer, using the given state
+     * @param state (State) - Decoding state, reset by this call
+     * @param content (byte[]) - Content of the file to decode
+     * @param pixels (ByteBuffer) - Buffer where to store the RGBA pixels row after row,
+     * it must have width * height * 4 bytes remaining
+     * @return (long) - Dimensions of the image, see {@link #width(long)} and {@link #height(long)}
+     */
+    static long decodeQoiFile(State state, byte[] content, ByteBuffer pixels){
+        assert pixels != null;
+        long dimensions = checkFile(content);
+        long count = (long) width(dimensions) * height(dimensions);
+        assert pixels.remaining() >= count * QOISpecification.RGBA;
+        state.reset();
+        if (state.scratch == null){
+            state.scratch = new int[SCRATCH_SIZE];
+        }
+        int[] scratch = state.scratch;
+        boolean bigEndian = pixels.order() == ByteOrder.BIG_ENDIAN;
+        int end = content.length - QOISpecification.QOI_EOF.length;
+        int idx = QOISpecification.HEADER_SIZE;
+        int offset = pixels.position();
+        for (long done = 0; done < count; done += state.position){
+            state.position = 0;
+            idx = decodePixels(state, content, idx, end, scratch, (int) Math.min(scratch.length, count - done));
+            assert state.position > 0 : "The data ends before the last pixel";
+            for (int i = 0; i < state.position; ++i){
+                int rgba = Integer.rotateLeft(scratch[i], 8);
+                pixels.putInt(offset, bigEndian ? rgba : Integer.reverseBytes(rgba));
+                offset += QOISpecification.RGBA;
+            }
+        }
+        assert idx == end && state.run == 0;
+        pixels.position(offset);
+        return dimensions;
+    }
+
+    /**
+     * @param dimensions (long) - Dimensions returned by a decoding method
+     * @return (int) - Width of the image
+     */
+    public static int width(long dimensions){
+        return (int) (dimensions >>> 32);
+    }
+
+    /**
+     * @param dimensions (long) - Dimensions returned by a decoding method
+     * @return (int) - Height of the image
+     */
+    public static int height(long dimensions){
+        return (int) dimensions;
+    }
+
+    /**
+     * Check the header and the end of file of a "Quite Ok Image" file without copying them
+     * @param content (byte[]) - Content of the file
+     * @return (long) - Dimensions of the image (width in the upper 32 bits, height in the lower ones)
+     * @throws AssertionError if content is null or corrupted (See handouts section 6.1)
+     */
+    static long checkFile(byte[] content){
+        assert content != null && content.length >= QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length;
+        assert startsWith(content, 0, QOISpecification.QOI_MAGIC) && startsWith(content, content.length - QOISpecification.QOI_EOF.length, QOISpecification.QOI_EOF);
+        assert (content[12] == QOISpecification.RGB || content[12] == QOISpecification.RGBA) && (content[13] == QOISpecification.ALL || content[13] == QOISpecification.sRGB);
+        int width = readInt(content, 4);
+        int height = readInt(content, 8);
+        assert width > 0 && height > 0;
+        return (long) width << 32 | height;
+    }
+
+    /**
+     * Read a big endian integer without copying the bytes
+     * @param content (byte[]) - Array to read from
+     * @param offset (int) - Index of the first byte of the integer
+     * @return (int) - The integer
+     */
+    static int readInt(byte[] content, int offset){
+        return (content[offset] & 0xFF) << 24 | (content[offset + 1] & 0xFF) << 16 | (content[offset + 2] & 0xFF) << 8 | (content[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Check that the array contains the expected bytes at the given index, without copying them
+     * @param content (byte[]) - Array to check
+     * @param offset (int) - Index of the first byte to compare
+     * @param expected (byte[]) - Expected bytes
+     * @return (boolean) - true if the bytes are the same, false otherwise
+     */
+    static boolean startsWith(byte[] content, int offset, byte[] expected){
+        for (int i = 0; i < expected.length; ++i){
+            if (content[offset + i] != expected[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,98 @@
+package cs107;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable "Quite Ok Image" decoder. A context owns the index table, the
+ * scratch row and the pixels buffer used to decode an image, and keeps them
+ * from one image to the next: once its buffers are large enough, decoding
+ * an image does not allocate anything.
+ * @apiNote A context is not thread-safe. It must be used by one thread at a time,
+ * for instance by keeping one context per thread or in a pool of contexts
+ * @version 1.0
+ * @since 1.0
+ */
+public final class QOIDecoderContext {
+
+    private final QOIDecoder.State state = new QOIDecoder.State();
+    private int[] pixels = new int[0];
+    private long dimensions;
+
+    /**
+     * Decode a file. The pixels are stored in the buffer of the context, see {@link #pixels()}
+     * @param content (byte[]) - Content of the file to decode
+     * @return (long) - Dimensions of the image, see {@link QOIDecoder#width(long)} and {@link QOIDecoder#height(long)}
+     * @throws AssertionError if content is null or corrupted
+     */
+    public long decode(byte[] content){
+        long header = QOIDecoder.checkFile(content);
+        int count = Math.multiplyExact(QOIDecoder.width(header), QOIDecoder.height(header));
+        if (pixels.length < count){
+            pixels = new int[count];
+        }
+        dimensions = QOIDecoder.decodeQoiFile(state, content, pixels);
+        return dimensions;
+    }
+
+    /**
+     * Decode a file in the given buffer
+     * @param content (byte[]) - Content of the file to decode
+     * @param output (int[]) - Buffer where to store the ARGB pixels row after row, it must hold width * height pixels
+     * @return (long) - Dimensions of the image, see {@link QOIDecoder#width(long)} and {@link QOIDecoder#height(long)}
+     * @throws AssertionError if one of the arrays is null, the content is corrupted or the buffer is too small
+     */
+    public long decode(byte[] content, int[] output){
+        return QOIDecoder.decodeQoiFile(state, content, output);
+    }
+
+    /**
+     * Decode a file in the given buffer, as 4 bytes R, G, B, A per pixel from the position of the buffer
+     * @param content (byte[]) - Content of the file to decode
+     * @param output (ByteBuffer) - Buffer where to store the RGBA pixels row after row
+     * @return (long) - Dimensions of the image, see {@link QOIDecoder#width(long)} and {@link QOIDecoder#height(long)}
+     * @throws AssertionError if one of the parameters is null, the content is corrupted or the buffer is too small
+     */
+    public long decode(byte[] content, ByteBuffer output){
+        return QOIDecoder.decodeQoiFile(state, content, output);
+    }
+
+    /**
+     * Decode a file into a new image
+     * @param content (byte[]) - Content of the file to decode
+     * @return (Helper.Image) - Decoded image
+     * @throws AssertionError if content is null or corrupted
+     */
+    public Helper.Image decodeQoiFile(byte[] content){
+        long size = decode(content);
+        int width = QOIDecoder.width(size);
+        int[][] data = new int[QOIDecoder.height(size)][width];
+        for (int i = 0; i < data.length; ++i){
+            System.arraycopy(pixels, i * width, data[i], 0, width);
+        }
+        return Helper.generateImage(data, content[12], content[13]);
+    }
+
+    /**
+     * @apiNote The buffer is reused by the next call to decode, only its first width * height pixels are meaningful
+     * @return (int[]) - ARGB pixels of the last decoded image
+     */
+    public int[] pixels(){
+        return pixels;
+    }
+
+    /**
+     * @return (long) - Dimensions of the last decoded image (0 if none)
+     */
+    public long dimensions(){
+        return dimensions;
+    }
+
+    /**
+     * Forget the last decoded image. The buffers are kept for the next image
+     */
+    public void reset(){
+        state.reset();
+        dimensions = 0;
+    }
+
+}
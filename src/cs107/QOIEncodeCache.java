@@ -0,0 +1,217 @@
+package cs107;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Content addressed cache of encoded "Quite Ok Image" files, stored on the disk.
+ * An image is identified by a 128 bits hash of its pixels, dimensions, channels and
+ * color space. When the directory already holds the file of an image, its content is
+ * returned instead of encoding the image again, also across runs. Identical images
+ * encoded at the same time are encoded only once, the other threads waiting for the
+ * result of the first one.
+ * <pre>
+ * directory/ab/abcdef0123456789abcdef0123456789.qoi
+ * </pre>
+ * @version 1.0
+ * @since 1.0
+ */
+public final class QOIEncodeCache {
+
+    /**
+     * Counters of the cache
+     * @param hits (long) - Number of images found on the disk
+     * @param shared (long) - Number of images whose encoding was already running in another thread
+     * @param encodes (long) - Number of images encoded
+     */
+    public record Stats(long hits, long shared, long encodes){
+
+        @Override
+        public String toString(){
+            return String.format("%d encoded, %d found in the cache, %d shared with a running encoding", encodes, hits, shared);
+        }
+    }
+
+    private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME_3 = 0x165667B19E3779F9L;
+    private static final long PRIME_4 = 0x85EBCA77C2B2AE63L;
+
+    private final Path directory;
+    private final ConcurrentHashMap<String, CompletableFuture<byte[]>> encoding = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+    private final LongAdder encodes = new LongAdder();
+
+    /**
+     * Open a cache stored in the given directory, creating it if needed
+     * @param directory (Path) - Directory of the cache
+     * @throws AssertionError if directory is null
+     */
+    public QOIEncodeCache(Path directory){
+        assert directory != null;
+        this.directory = createDirectory(directory);
+    }
+
+    /**
+     * Return the "Quite Ok Image" file of an image, from the cache if it holds it
+     * and by encoding the image (and storing the result) otherwise.
+     * A cached file that is truncated or does not match the image is encoded again
+     * @param image (Helper.Image) - Image to encode
+     * @return (byte[]) - Binary representation of the "Quite Ok File" of the image
+     * @throws AssertionError if the image is null
+     */
+    public byte[] qoiFile(Helper.Image image){
+        assert image != null;
+        String key = contentHash(image);
+        var future = new CompletableFuture<byte[]>();
+        var running = encoding.putIfAbsent(key, future);
+        if (running != null){
+            shared.increment();
+            return await(running);
+        }
+        try {
+            Path file = path(key);
+            byte[] content = read(file);
+            if (content != null && isValid(content, image)){
+                hits.increment();
+            } else {
+                content = QOIEncoder.qoiFile(image);
+                encodes.increment();
+                Files.createDirectories(file.getParent());
+                Helper.write(file, ByteBuffer.wrap(content), true, false);
+            }
+            future.complete(content);
+            return content;
+        } catch (IOException e){
+            var failure = new RuntimeException(String.format("An error occurred while trying to write to : \"%s\"%n", directory), e);
+            future.completeExceptionally(failure);
+            throw failure;
+        } catch (RuntimeException | Error e){
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            encoding.remove(key, future);
+        }
+    }
+
+    /**
+     * @return (Stats) - Snapshot of the counters of the cache
+     */
+    public Stats stats(){
+        return new Stats(hits.sum(), shared.sum(), encodes.sum());
+    }
+
+    /**
+     * Hash the content of an image. Unlike {@link Helper.Image#hashCode()}, the hash covers
+     * the dimensions, the channels and the color space and is wide enough (128 bits)
+     * to identify an image among millions
+     * @param image (Helper.Image) - Image to hash
+     * @return (String) - Hash of the image as 32 hexadecimal digits
+     * @throws AssertionError if the image is null
+     */
+    public static String contentHash(Helper.Image image){
+        assert image != null;
+        int[][] data = image.data();
+        long first = PRIME_1 ^ data.length;
+        long second = PRIME_2 ^ ((long) data[0].length << 16 | (image.channels() & 0xFF) << 8 | (image.color_space() & 0xFF));
+        for (int[] row : data){
+            int x = 0;
+            // Two pixels make one 64 bits word, mixed in both halves of the hash
+            for (; x + 1 < row.length; x += 2){
+                long word = (long) row[x] << 32 | (row[x + 1] & 0xFFFF_FFFFL);
+                first = Long.rotateLeft(first + word * PRIME_2, 31) * PRIME_1;
+                second = Long.rotateLeft(second ^ word * PRIME_4, 27) * PRIME_3;
+            }
+            if (x < row.length){
+                long word = row[x] & 0xFFFF_FFFFL;
+                first = Long.rotateLeft(first + word * PRIME_2, 31) * PRIME_1;
+                second = Long.rotateLeft(second ^ word * PRIME_4, 27) * PRIME_3;
+            }
+        }
+        first = avalanche(first + second);
+        second = avalanche(second + first);
+        return String.format("%016x%016x", first, second);
+    }
+
+    // ==================================================================================
+    // ================================ HELPER METHODS ==================================
+    // ==================================================================================
+
+    private static long avalanche(long hash){
+        hash ^= hash >>> 33;
+        hash *= PRIME_2;
+        hash ^= hash >>> 29;
+        hash *= PRIME_3;
+        return hash ^ hash >>> 32;
+    }
+
+    private static Path createDirectory(Path directory){
+        try {
+            return Files.createDirectories(directory);
+        } catch (IOException e){
+            return Helper.fail("Cannot create directory '%s'", directory);
+        }
+    }
+
+    private Path path(String key){
+        return directory.resolve(key.substring(0, 2)).resolve(key + ".qoi");
+    }
+
+    /**
+     * @param file (Path) - File of the cache
+     * @return (byte[]) - Its content, null if it does not exist
+     * @throws IOException if the file exists but cannot be read
+     */
+    private static byte[] read(Path file) throws IOException {
+        try {
+            return Files.readAllBytes(file);
+        } catch (NoSuchFileException e){
+            return null;
+        }
+    }
+
+    /**
+     * Check that a cached file is a whole "Quite Ok Image" file of the given image:
+     * it starts with the magic number and the header of the image and ends with QOI_EOF
+     * @param content (byte[]) - Content of the cached file
+     * @param image (Helper.Image) - Image the file was stored for
+     * @return (boolean) - true if the file can be returned as is
+     */
+    private static boolean isValid(byte[] content, Helper.Image image){
+        int eof = content.length - QOISpecification.QOI_EOF.length;
+        return eof >= QOISpecification.HEADER_SIZE
+                && Arrays.equals(content, 0, QOISpecification.QOI_MAGIC.length, QOISpecification.QOI_MAGIC, 0, QOISpecification.QOI_MAGIC.length)
+                && QOIDecoder.readInt(content, 4) == image.data()[0].length
+                && QOIDecoder.readInt(content, 8) == image.data().length
+                && content[12] == image.channels() && content[13] == image.color_space()
+                && Arrays.equals(content, eof, content.length, QOISpecification.QOI_EOF, 0, QOISpecification.QOI_EOF.length);
+    }
+
+    /**
+     * Wait for the encoding run by another thread, rethrowing its failure as is
+     * @param running (CompletableFuture<byte[]>) - Running encoding
+     * @return (byte[]) - The encoded file
+     */
+    private static byte[] await(CompletableFuture<byte[]> running){
+        try {
+            return running.join();
+        } catch (CompletionException e){
+            if (e.getCause() instanceof RuntimeException cause){
+                throw cause;
+            } else if (e.getCause() instanceof Error cause){
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+}
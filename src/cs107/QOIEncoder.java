@@ -1,7 +1,10 @@
 package cs107;
 
-import java.lang.reflect.Array;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
 /**
  * "Quite Ok Image" Encoder
@@ -29,12 +32,57 @@ public final class QOIEncoder {
      * @return (byte[]) - Corresponding "Quite Ok Image" Header
      */
     public static byte[] qoiHeader(Helper.Image image){
-        assert image != null && (image.channels() == QOISpecification.RGB || image.channels() == QOISpecification.RGBA) && (image.color_space() == QOISpecification.sRGB || image.color_space() == QOISpecification.ALL);
-        byte[] header1 = ArrayUtils.concat(QOISpecification.QOI_MAGIC, ArrayUtils.fromInt(image.data()[0].length), ArrayUtils.fromInt(image.data().length));
-        byte[] header2 = ArrayUtils.concat(image.channels(), image.color_space());
-        return ArrayUtils.concat(header1, header2);
+        assert image != null;
+        return qoiHeader(image.data()[0].length, image.data().length, image.channels(), image.color_space());
+    }
+
+    /**
+     * Generate a "Quite Ok Image" header using the following parameters
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels of the image
+     * @param colorSpace (byte) - Color space of the image
+     * @throws AssertionError if the colorspace, the number of channels or the dimensions are corrupted
+     * @return (byte[]) - Corresponding "Quite Ok Image" Header
+     */
+    public static byte[] qoiHeader(int width, int height, byte channels, byte colorSpace){
+        byte[] header = new byte[QOISpecification.HEADER_SIZE];
+        writeHeader(header, 0, width, height, channels, colorSpace);
+        return header;
+    }
 
+    /**
+     * Write a "Quite Ok Image" header in the output buffer
+     * @param output (byte[]) - Buffer where to write the header
+     * @param offset (int) - Index in the buffer to start writing from
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels of the image
+     * @param colorSpace (byte) - Color space of the image
+     * @return (int) - Index in the buffer after the header
+     * @throws AssertionError if the colorspace, the number of channels or the dimensions are corrupted
+     */
+    static int writeHeader(byte[] output, int offset, int width, int height, byte channels, byte colorSpace){
+        assert width > 0 && height > 0 && (channels == QOISpecification.RGB || channels == QOISpecification.RGBA) && (colorSpace == QOISpecification.sRGB || colorSpace == QOISpecification.ALL);
+        System.arraycopy(QOISpecification.QOI_MAGIC, 0, output, offset, QOISpecification.QOI_MAGIC.length);
+        writeInt(output, offset + 4, width);
+        writeInt(output, offset + 8, height);
+        output[offset + 12] = channels;
+        output[offset + 13] = colorSpace;
+        return offset + QOISpecification.HEADER_SIZE;
+    }
 
+    /**
+     * Write a big endian integer in the output buffer
+     * @param output (byte[]) - Buffer where to write the integer
+     * @param offset (int) - Index of the first byte of the integer
+     * @param value (int) - The integer
+     */
+    static void writeInt(byte[] output, int offset, int value){
+        output[offset] = (byte) (value >>> 24);
+        output[offset + 1] = (byte) (value >>> 16);
+        output[offset + 2] = (byte) (value >>> 8);
+        output[offset + 3] = (byte) value;
     }
 
     // ==================================================================================
@@ -134,20 +182,40 @@ public final class QOIEncoder {
     // ============================== GLOBAL ENCODING METHODS  ==========================
     // ==================================================================================
 
+    /**
+     * Encode the given image using the "Quite Ok Image" Protocol
+     * and add the operations used to the given collector
+     * @param image (byte[][]) - Formatted image to encode
+     * @param collector (QOIStatistics.Collector) - Collector of the operations
+     * @return (byte[]) - "Quite Ok Image" representation of the image
+     * @throws AssertionError if the image or the collector is null
+     */
+    public static byte[] encodeData(byte[][] image, QOIStatistics.Collector collector){
+        assert collector != null;
+        byte[] data = encodeData(image);
+        collector.acceptData(data, 0, data.length);
+        return data;
+    }
+
     /**
      * Encode the given image using the "Quite Ok Image" Protocol
      * (See handout for more information about the "Quite Ok Image" protocol)
+     * @apiNote The operations are written straight into a single buffer sized for the worst case
+     * (every pixel stored as a QOI_OP_RGBA), so the cost is linear in the number of pixels
      * @param image (byte[][]) - Formatted image to encode
      * @return (byte[]) - "Quite Ok Image" representation of the image
      */
     public static byte[] encodeData(byte[][] image){
+        var event = new QOIEvents.Encode();
+        event.begin();
 
         assert image != null;
         byte[] prevPixel = QOISpecification.START_PIXEL;
         byte[][] hashTable = new byte[64][4];
         int counter = 0;
 
-        ArrayList<byte[]> encoded = new ArrayList<byte[]>();
+        byte[] encoded = new byte[maxDataSize(image.length, QOISpecification.RGBA)];
+        int position = 0;
 
         for (int i = 0; i < image.length; ++i){
             assert (image[i] != null && image[i].length == 4);
@@ -155,23 +223,23 @@ public final class QOIEncoder {
             if (ArrayUtils.equals(image[i], prevPixel)){
                 counter += 1;
                 if (counter == 62){
-                    encoded.add(qoiOpRun((byte) counter));
+                    position = writeQoiOpRun(encoded, position, counter);
                     counter = 0;
                 }
                 continue;
             }
-            if (!ArrayUtils.equals(image[i], prevPixel) && counter > 0){
-                encoded.add(qoiOpRun((byte) counter));
+            if (counter > 0){
+                position = writeQoiOpRun(encoded, position, counter);
                 counter = 0;
             }
 
-
-            if (ArrayUtils.equals(image[i], hashTable[QOISpecification.hash(image[i])])){
-                encoded.add(qoiOpIndex(QOISpecification.hash(image[i])));
+            byte hash = QOISpecification.hash(image[i]);
+            if (ArrayUtils.equals(image[i], hashTable[hash])){
+                encoded[position++] = hash;
                 prevPixel = image[i];
                 continue;
             } else {
-                hashTable[QOISpecification.hash(image[i])] = image[i];
+                hashTable[hash] = image[i];
             }
             int dr = (byte) (image[i][0] - prevPixel[0]);
             int dg = (byte) (image[i][1] - prevPixel[1]);
@@ -180,8 +248,7 @@ public final class QOIEncoder {
             boolean sameAlpha = image[i][3] == prevPixel[3];
 
             if (sameAlpha && (dr > -3) && (dr < 2) && (dg > -3) && (dg < 2) && (db > -3) && (db < 2)){
-                byte[] difs = {(byte) dr, (byte) dg, (byte) db};
-                encoded.add(qoiOpDiff(difs));
+                encoded[position++] = (byte) (QOISpecification.QOI_OP_DIFF_TAG | (dr + 2) << 4 | (dg + 2) << 2 | (db + 2));
                 prevPixel = image[i];
                 continue;
             }
@@ -190,28 +257,239 @@ public final class QOIEncoder {
             int dbMinusDg = (byte) (db - dg);
 
             if (sameAlpha && (dg > -33) && (dg < 32) && (drMinusDg  > -9) && (drMinusDg < 8) && (dbMinusDg  > -9) && (dbMinusDg < 8)){
-                byte[] difs = {(byte) dr, (byte) dg, (byte) db};
-                encoded.add(qoiOpLuma(difs));
+                encoded[position++] = (byte) (QOISpecification.QOI_OP_LUMA_TAG | (dg + 32));
+                encoded[position++] = (byte) ((drMinusDg + 8) << 4 | (dbMinusDg + 8));
                 prevPixel = image[i];
                 continue;
             }
             if (sameAlpha){
-                encoded.add(qoiOpRGB(image[i]));
+                encoded[position++] = QOISpecification.QOI_OP_RGB_TAG;
             } else {
-                encoded.add(qoiOpRGBA(image[i]));
+                encoded[position++] = QOISpecification.QOI_OP_RGBA_TAG;
+            }
+            encoded[position++] = image[i][0];
+            encoded[position++] = image[i][1];
+            encoded[position++] = image[i][2];
+            if (!sameAlpha){
+                encoded[position++] = image[i][3];
             }
             prevPixel = image[i];
 
         }
         if (counter > 0){
-            encoded.add(qoiOpRun((byte) counter));
+            position = writeQoiOpRun(encoded, position, counter);
         }
-        byte[] encoded2 = new byte[encoded.size()];
-        encoded2 = encoded.get(0);
-        for (int i = 1; i < encoded.size(); ++i){
-            encoded2 = ArrayUtils.concat(encoded2, encoded.get(i));
+        event.end(image.length, QOISpecification.RGBA, (long) image.length * QOISpecification.RGBA, position);
+        return ArrayUtils.extract(encoded, 0, position);
+    }
+
+    /**
+     * Encode the given packed image using the "Quite Ok Image" Protocol
+     * @apiNote Produces the same bytes as {@link #encodeData(byte[][])} without
+     * allocating a byte[] per pixel
+     * @param pixels (int[]) - ARGB pixels of the image stored row after row
+     * @return (byte[]) - "Quite Ok Image" representation of the image
+     * @throws AssertionError if the pixels are null or empty
+     */
+    public static byte[] encodeData(int[] pixels){
+        assert pixels != null && pixels.length > 0;
+        byte[] encoded = new byte[maxDataSize(pixels.length, QOISpecification.RGBA)];
+        int position = encodeData(pixels, encoded, 0);
+        return ArrayUtils.extract(encoded, 0, position);
+    }
+
+    /**
+     * Encode the given packed image in the output buffer using the "Quite Ok Image" Protocol
+     * @param pixels (int[]) - ARGB pixels of the image stored row after row
+     * @param output (byte[]) - Buffer where to write the encoded data
+     * @param offset (int) - Index in the buffer to start writing from
+     * @return (int) - Index in the buffer after the last written byte
+     * @throws AssertionError if one of the arrays is null
+     * or the buffer cannot hold {@link #maxDataSize(int, int)} bytes after offset
+     */
+    public static int encodeData(int[] pixels, byte[] output, int offset){
+        assert pixels != null && output != null && offset >= 0;
+        assert output.length - offset >= maxDataSize(pixels.length, QOISpecification.RGBA);
+        var event = new QOIEvents.Encode();
+        event.begin();
+        State state = new State();
+        int position = flushRun(state, output, encodeData(state, pixels, 0, pixels.length, output, offset));
+        event.end(pixels.length, QOISpecification.RGBA, (long) pixels.length * QOISpecification.RGBA, position - offset);
+        return position;
+    }
+
+    /**
+     * Encoding state carried from one pixel to the next
+     * (previous pixel, pending run and index table)
+     */
+    static final class State {
+
+        final int[] hashTable = new int[64];
+        int previousPixel = QOISpecification.START_PIXEL_ARGB;
+        int run = 0;
+
+        /**
+         * Reset the state as it is before the first pixel of an image
+         */
+        void reset(){
+            Arrays.fill(hashTable, 0);
+            previousPixel = QOISpecification.START_PIXEL_ARGB;
+            run = 0;
         }
-        return encoded2;
+    }
+
+    /**
+     * Encode a range of packed pixels in the output buffer, continuing from the given state
+     * @apiNote A run still pending after the last pixel is kept in the state,
+     * call {@link #flushRun(State, byte[], int)} once the last pixel of the image was encoded
+     * @param state (State) - Encoding state, updated by this call
+     * @param pixels (int[]) - ARGB pixels of the image stored row after row
+     * @param from (int) - Index of the first pixel to encode
+     * @param to (int) - Index after the last pixel to encode
+     * @param output (byte[]) - Buffer where to write the encoded data, it must hold at least
+     * (to - from) * 5 bytes after offset
+     * @param offset (int) - Index in the buffer to start writing from
+     * @return (int) - Index in the buffer after the last written byte
+     */
+    static int encodeData(State state, int[] pixels, int from, int to, byte[] output, int offset){
+        int[] hashTable = state.hashTable;
+        int prevPixel = state.previousPixel;
+        int counter = state.run;
+        int position = offset;
+
+        for (int i = from; i < to; ++i){
+            int pixel = pixels[i];
+            if (pixel == prevPixel){
+                // The run goes on while each pixel equals the one before it: Arrays.mismatch
+                // compares the pixels with themselves shifted by one, many pixels at a time
+                int length = Arrays.mismatch(pixels, i + 1, to, pixels, i, to - 1);
+                length = length < 0 ? to - i : length + 1;
+                counter += length;
+                i += length - 1;
+                while (counter >= 62){
+                    position = writeQoiOpRun(output, position, 62);
+                    counter -= 62;
+                }
+                continue;
+            }
+            if (counter > 0){
+                position = writeQoiOpRun(output, position, counter);
+                counter = 0;
+            }
+
+            int hash = QOISpecification.hash(pixel);
+            if (hashTable[hash] == pixel){
+                output[position++] = (byte) hash;
+                prevPixel = pixel;
+                continue;
+            }
+            hashTable[hash] = pixel;
+
+            if (((pixel ^ prevPixel) >>> 24) == 0){
+                int dr = (byte) ((pixel >> 16) - (prevPixel >> 16));
+                int dg = (byte) ((pixel >> 8) - (prevPixel >> 8));
+                int db = (byte) (pixel - prevPixel);
+                int drMinusDg = dr - dg;
+                int dbMinusDg = db - dg;
+
+                // A biased difference is in range when no bit above its width is set
+                // (a negative one has all of them set), so each class is a single test
+                if ((((dr + 2) | (dg + 2) | (db + 2)) & ~0b11) == 0){
+                    output[position++] = (byte) (QOISpecification.QOI_OP_DIFF_TAG | (dr + 2) << 4 | (dg + 2) << 2 | (db + 2));
+                } else if ((((dg + 32) & ~0b11_1111) | ((drMinusDg + 8) | (dbMinusDg + 8)) & ~0b1111) == 0){
+                    output[position++] = (byte) (QOISpecification.QOI_OP_LUMA_TAG | (dg + 32));
+                    output[position++] = (byte) ((drMinusDg + 8) << 4 | (dbMinusDg + 8));
+                } else {
+                    output[position++] = QOISpecification.QOI_OP_RGB_TAG;
+                    output[position++] = (byte) (pixel >> 16);
+                    output[position++] = (byte) (pixel >> 8);
+                    output[position++] = (byte) pixel;
+                }
+            } else {
+                output[position++] = QOISpecification.QOI_OP_RGBA_TAG;
+                output[position++] = (byte) (pixel >> 16);
+                output[position++] = (byte) (pixel >> 8);
+                output[position++] = (byte) pixel;
+                output[position++] = (byte) (pixel >>> 24);
+            }
+            prevPixel = pixel;
+        }
+        state.previousPixel = prevPixel;
+        state.run = counter;
+        return position;
+    }
+
+    /**
+     * Encode a range of packed pixels as an independent stripe.
+     * The stripe can be decoded without the pixels before it (its first pixel is
+     * a QOI_OP_RGBA and it only indexes pixels of the stripe), and it also decodes
+     * correctly when it follows the previous stripes in a single stream
+     * @param state (State) - Encoding state, reset by this call
+     * @param pixels (int[]) - ARGB pixels of the image stored row after row
+     * @param from (int) - Index of the first pixel of the stripe
+     * @param to (int) - Index after the last pixel of the stripe
+     * @param output (byte[]) - Buffer where to write the encoded data, it must hold at least
+     * (to - from) * 5 bytes after offset
+     * @param offset (int) - Index in the buffer to start writing from
+     * @return (int) - Index in the buffer after the last written byte
+     */
+    static int encodeStripe(State state, int[] pixels, int from, int to, byte[] output, int offset){
+        assert from < to;
+        state.reset();
+        // An empty slot 0 would match the pixel 0x00000000 that the decoder may have indexed
+        // in a previous stripe, fill it with a pixel that cannot hash to 0
+        state.hashTable[0] = QOISpecification.START_PIXEL_ARGB;
+        int pixel = pixels[from];
+        int position = offset;
+        output[position++] = QOISpecification.QOI_OP_RGBA_TAG;
+        output[position++] = (byte) (pixel >> 16);
+        output[position++] = (byte) (pixel >> 8);
+        output[position++] = (byte) pixel;
+        output[position++] = (byte) (pixel >>> 24);
+        state.hashTable[QOISpecification.hash(pixel)] = pixel;
+        state.previousPixel = pixel;
+        position = encodeData(state, pixels, from + 1, to, output, position);
+        return flushRun(state, output, position);
+    }
+
+    /**
+     * Write the run still pending in the state (if any)
+     * @param state (State) - Encoding state, updated by this call
+     * @param output (byte[]) - Buffer where to write the chunk
+     * @param position (int) - Index in the buffer
+     * @return (int) - Index in the buffer after the chunk
+     */
+    static int flushRun(State state, byte[] output, int position){
+        if (state.run > 0){
+            position = writeQoiOpRun(output, position, state.run);
+            state.run = 0;
+        }
+        return position;
+    }
+
+    /**
+     * Upper bound of the size of the encoded data of an image
+     * @apiNote In the worst case, every pixel is stored with a tag followed by all its channels
+     * @param pixels (int) - Number of pixels in the image
+     * @param channels (int) - Number of channels of the image
+     * @return (int) - Maximum number of bytes needed to store the encoded pixels
+     */
+    public static int maxDataSize(int pixels, int channels){
+        assert pixels > 0 && (channels == QOISpecification.RGB || channels == QOISpecification.RGBA);
+        return Math.multiplyExact(pixels, channels + 1);
+    }
+
+    /**
+     * Write a QOI_OP_RUN chunk in the output buffer
+     * @param output (byte[]) - Buffer where to write the chunk
+     * @param position (int) - Index in the buffer
+     * @param count (int) - Number of similar pixels
+     * @return (int) - Index in the buffer after the chunk
+     */
+    private static int writeQoiOpRun(byte[] output, int position, int count){
+        assert count >= 1 && count <= 62;
+        output[position] = (byte) (QOISpecification.QOI_OP_RUN_TAG | (count - 1));
+        return position + 1;
     }
 
     /**
@@ -224,7 +502,122 @@ public final class QOIEncoder {
      */
     public static byte[] qoiFile(Helper.Image image){
         assert image != null;
-        return ArrayUtils.concat(qoiHeader(image), encodeData(ArrayUtils.imageToChannels(image.data())), QOISpecification.QOI_EOF);
+        var event = new QOIEvents.Encode();
+        event.begin();
+        int width = image.data()[0].length;
+        int height = image.data().length;
+        int[] pixels = ArrayUtils.imageToPixels(image.data());
+        byte[] file = new byte[maxFileSize(pixels.length)];
+        int length = qoiFile(new State(), pixels, width, height, image.channels(), image.color_space(), file);
+        event.end(width, height, image.channels(), (long) pixels.length * QOISpecification.RGBA, length);
+        return ArrayUtils.extract(file, 0, length);
+    }
+
+    /**
+     * Creates the representation in memory of the "Quite Ok Image" file
+     * and adds its operations to the given collector
+     * @param image (Helper.Image) - Image to encode
+     * @param collector (QOIStatistics.Collector) - Collector of the operations
+     * @return (byte[]) - Binary representation of the "Quite Ok File" of the image
+     * @throws AssertionError if the image or the collector is null
+     */
+    public static byte[] qoiFile(Helper.Image image, QOIStatistics.Collector collector){
+        assert collector != null;
+        byte[] file = qoiFile(image);
+        collector.acceptFile(file);
+        return file;
+    }
+
+    /**
+     * Creates the representation in memory of the "Quite Ok Image" file of a flat image.
+     * The pixels are encoded in place, even when the image is a view of a larger one
+     * @param image (FlatImage) - Image to encode
+     * @return (byte[]) - Binary representation of the "Quite Ok File" of the image
+     * @throws AssertionError if the image is null
+     */
+    public static byte[] qoiFile(FlatImage image){
+        assert image != null;
+        byte[] file = new byte[maxFileSize(Math.multiplyExact(image.width(), image.height()))];
+        int length = qoiFile(new State(), image.array(), image.offset(), image.stride(), image.width(), image.height(), image.channels(), image.colorSpace(), file);
+        return ArrayUtils.extract(file, 0, length);
+    }
+
+    /**
+     * Write the "Quite Ok Image" file of an image stored outside of the Java heap.
+     * The image is encoded and written one row at a time, so neither the image nor the file
+     * is limited to Integer.MAX_VALUE bytes
+     * @param image (OffHeapImage) - Image to encode
+     * @param path (Path) - Path of the file to write
+     * @throws AssertionError if the image or the path is null
+     */
+    public static void writeQoiFile(OffHeapImage image, Path path){
+        assert image != null && path != null;
+        try (var channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+             var encoder = new QOIStreamEncoder(channel, image.width(), image.height(), image.channels(), image.colorSpace())){
+            int[] row = new int[image.width()];
+            for (int y = 0; y < image.height(); ++y){
+                image.row(y, row);
+                encoder.writeRow(row);
+            }
+        } catch (IOException e){
+            Helper.fail("An error occurred while trying to write to : \"%s\"%n", path);
+        }
+    }
+
+    /**
+     * Upper bound of the size of a "Quite Ok Image" file
+     * @param pixels (int) - Number of pixels in the image
+     * @return (int) - Maximum number of bytes of the file (header, encoded pixels and end of file)
+     */
+    public static int maxFileSize(int pixels){
+        return Math.addExact(maxDataSize(pixels, QOISpecification.RGBA), QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length);
+    }
+
+    /**
+     * Write the "Quite Ok Image" file of packed pixels in the output buffer
+     * @param state (State) - Encoding state, reset by this call
+     * @param pixels (int[]) - ARGB pixels of the image stored row after row (at least width * height)
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels of the image
+     * @param colorSpace (byte) - Color space of the image
+     * @param output (byte[]) - Buffer where to write the file, it must hold {@link #maxFileSize(int)} bytes
+     * @return (int) - Size of the file
+     */
+    static int qoiFile(State state, int[] pixels, int width, int height, byte channels, byte colorSpace, byte[] output){
+        return qoiFile(state, pixels, 0, width, width, height, channels, colorSpace, output);
+    }
+
+    /**
+     * Write the "Quite Ok Image" file of packed pixels whose rows are spaced by a stride in the output buffer
+     * @param state (State) - Encoding state, reset by this call
+     * @param pixels (int[]) - ARGB pixels of the image, the pixel (x, y) being at offset + y * stride + x
+     * @param offset (int) - Index of the pixel (0, 0)
+     * @param stride (int) - Distance between two vertically adjacent pixels
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels of the image
+     * @param colorSpace (byte) - Color space of the image
+     * @param output (byte[]) - Buffer where to write the file, it must hold {@link #maxFileSize(int)} bytes
+     * @return (int) - Size of the file
+     */
+    static int qoiFile(State state, int[] pixels, int offset, int stride, int width, int height, byte channels, byte colorSpace, byte[] output){
+        int count = Math.multiplyExact(width, height);
+        assert offset >= 0 && stride >= width && pixels.length - offset >= (long) (height - 1) * stride + width && output.length >= maxFileSize(count);
+        state.reset();
+        int position = writeHeader(output, 0, width, height, channels, colorSpace);
+        if (stride == width){
+            position = encodeData(state, pixels, offset, offset + count, output, position);
+        } else {
+            // The state carries the runs and the index table from one row to the next
+            for (int y = 0; y < height; ++y){
+                int from = offset + y * stride;
+                position = encodeData(state, pixels, from, from + width, output, position);
+            }
+        }
+        position = flushRun(state, output, position);
+        System.arraycopy(QOISpecification.QOI_EOF, 0, output, position, QOISpecification.QOI_EOF.length);
+        return position + QOISpecification.QOI_EOF.length;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,106 @@
+package cs107;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reusable "Quite Ok Image" encoder. A context owns the index table, the
+ * packed pixels and the output buffer used to encode an image, and keeps them
+ * from one image to the next: once its buffers are large enough, encoding
+ * an image does not allocate anything.
+ * @apiNote A context is not thread-safe. It must be used by one thread at a time,
+ * for instance by keeping one context per thread or in a pool of contexts
+ * @version 1.0
+ * @since 1.0
+ */
+public final class QOIEncoderContext {
+
+    private final QOIEncoder.State state = new QOIEncoder.State();
+    private int[] pixels = new int[0];
+    private byte[] output = new byte[0];
+    private int length;
+
+    /**
+     * Encode an image. The file is stored in the buffer of the context, see {@link #output()} and {@link #length()}
+     * @param image (Helper.Image) - Image to encode
+     * @return (int) - Size of the "Quite Ok Image" file
+     * @throws AssertionError if the image is null
+     */
+    public int encode(Helper.Image image){
+        assert image != null;
+        int[][] data = image.data();
+        int width = data[0].length;
+        int count = Math.multiplyExact(width, data.length);
+        if (pixels.length < count){
+            pixels = new int[count];
+        }
+        for (int i = 0; i < data.length; ++i){
+            assert data[i].length == width;
+            System.arraycopy(data[i], 0, pixels, i * width, width);
+        }
+        return encode(pixels, width, data.length, image.channels(), image.color_space());
+    }
+
+    /**
+     * Encode packed pixels. The file is stored in the buffer of the context, see {@link #output()} and {@link #length()}
+     * @param pixels (int[]) - ARGB pixels of the image stored row after row (at least width * height)
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels of the image
+     * @param colorSpace (byte) - Color space of the image
+     * @return (int) - Size of the "Quite Ok Image" file
+     * @throws AssertionError if the pixels are null or the header parameters are corrupted
+     */
+    public int encode(int[] pixels, int width, int height, byte channels, byte colorSpace){
+        assert pixels != null && width > 0 && height > 0;
+        int maxSize = QOIEncoder.maxFileSize(Math.multiplyExact(width, height));
+        if (output.length < maxSize){
+            output = new byte[maxSize];
+        }
+        length = QOIEncoder.qoiFile(state, pixels, width, height, channels, colorSpace, output);
+        return length;
+    }
+
+    /**
+     * Encode an image and return a copy of the file
+     * @param image (Helper.Image) - Image to encode
+     * @return (byte[]) - Binary representation of the "Quite Ok File" of the image
+     * @throws AssertionError if the image is null
+     */
+    public byte[] qoiFile(Helper.Image image){
+        int size = encode(image);
+        return Arrays.copyOf(output, size);
+    }
+
+    /**
+     * @apiNote The buffer is reused by the next call to encode, only its first {@link #length()} bytes are meaningful
+     * @return (byte[]) - Buffer holding the last encoded file
+     */
+    public byte[] output(){
+        return output;
+    }
+
+    /**
+     * @apiNote The buffer shares the array reused by the next call to encode, it must be consumed before
+     * @return (ByteBuffer) - View of the last encoded file, without copy (for instance for Helper::write)
+     */
+    public ByteBuffer outputBuffer(){
+        return ByteBuffer.wrap(output, 0, length);
+    }
+
+    /**
+     * @return (int) - Size of the last encoded file
+     */
+    public int length(){
+        return length;
+    }
+
+    /**
+     * Forget the last encoded file. The buffers are kept for the next image
+     */
+    public void reset(){
+        state.reset();
+        length = 0;
+    }
+
+}
@@ -0,0 +1,147 @@
+package cs107;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JDK Flight Recorder events of the encoding, the decoding and the file accesses.
+ * An event is begun before a phase and ended after it. When the event is not enabled
+ * in the recording, ending it only checks a flag and no field is computed
+ * (enable them with -XX:StartFlightRecording or jcmd JFR.start)
+ * @version 1.0
+ * @since 1.0
+ */
+public final class QOIEvents {
+
+    /**
+     * DO NOT CHANGE THIS, MORE ON THAT IN WEEK 7.
+     */
+    private QOIEvents(){}
+
+    /**
+     * Event of a phase working on an image. The width and the height are 0 when the
+     * phase only knows the number of pixels
+     */
+    @Category({"QOI"})
+    abstract static class ImageEvent extends Event {
+
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+
+        @Label("Pixels")
+        long pixels;
+
+        @Label("Channels")
+        int channels;
+
+        @Label("Bytes In")
+        @DataAmount
+        long bytesIn;
+
+        @Label("Bytes Out")
+        @DataAmount
+        long bytesOut;
+
+        /**
+         * Record the event if it is enabled (the duration is measured from begin())
+         * @param width (int) - Width of the image
+         * @param height (int) - Height of the image
+         * @param channels (int) - Number of channels of the image
+         * @param bytesIn (long) - Number of bytes read by the phase
+         * @param bytesOut (long) - Number of bytes produced by the phase
+         */
+        final void end(int width, int height, int channels, long bytesIn, long bytesOut){
+            if (shouldCommit()){
+                this.width = width;
+                this.height = height;
+                this.pixels = (long) width * height;
+                this.channels = channels;
+                this.bytesIn = bytesIn;
+                this.bytesOut = bytesOut;
+                commit();
+            }
+        }
+
+        /**
+         * Record the event of a phase whose image dimensions are unknown, if it is enabled
+         * @param pixels (long) - Number of pixels of the image
+         * @param channels (int) - Number of channels of the image
+         * @param bytesIn (long) - Number of bytes read by the phase
+         * @param bytesOut (long) - Number of bytes produced by the phase
+         */
+        final void end(long pixels, int channels, long bytesIn, long bytesOut){
+            if (shouldCommit()){
+                this.pixels = pixels;
+                this.channels = channels;
+                this.bytesIn = bytesIn;
+                this.bytesOut = bytesOut;
+                commit();
+            }
+        }
+    }
+
+    @Name("cs107.qoi.Header")
+    @Label("QOI Header Parse")
+    @Description("Parsing of a \"Quite Ok Image\" header")
+    static final class Header extends ImageEvent {}
+
+    @Name("cs107.qoi.Encode")
+    @Label("QOI Encode")
+    @Description("Encoding of pixels using the \"Quite Ok Image\" Protocol")
+    static final class Encode extends ImageEvent {}
+
+    @Name("cs107.qoi.Decode")
+    @Label("QOI Decode")
+    @Description("Decoding of data using the \"Quite Ok Image\" Protocol")
+    static final class Decode extends ImageEvent {}
+
+    @Name("cs107.qoi.Conversion")
+    @Label("QOI Conversion")
+    @Description("Conversion between an image and its channels or its packed pixels")
+    static final class Conversion extends ImageEvent {}
+
+    /**
+     * Event of a file access
+     */
+    @Category({"QOI"})
+    abstract static class FileEvent extends Event {
+
+        @Label("Path")
+        String path;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        /**
+         * Record the event if it is enabled (the duration is measured from begin())
+         * @param path (Object) - Path of the file
+         * @param bytes (long) - Number of bytes read or written
+         */
+        final void end(Object path, long bytes){
+            if (shouldCommit()){
+                this.path = String.valueOf(path);
+                this.bytes = bytes;
+                commit();
+            }
+        }
+    }
+
+    @Name("cs107.qoi.FileRead")
+    @Label("QOI File Read")
+    @Description("Reading of a file from the disk")
+    static final class FileRead extends FileEvent {}
+
+    @Name("cs107.qoi.FileWrite")
+    @Label("QOI File Write")
+    @Description("Writing of a file to the disk")
+    static final class FileWrite extends FileEvent {}
+
+}
@@ -0,0 +1,219 @@
+package cs107;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread safe cache of decoded "Quite Ok Image" files.
+ * An entry is keyed by the path of the file, its last modification time and its size,
+ * so a modified file is decoded again. The entries are evicted in least recently used
+ * order once the decoded pixels (width * height * 4 bytes) exceed the capacity of the cache.
+ * Concurrent misses on the same file decode it only once, the other threads waiting for
+ * the result of the first one.
+ * @apiNote The cached images are shared, their pixels must not be modified
+ * @version 1.0
+ * @since 1.0
+ */
+public final class QOIImageCache {
+
+    /**
+     * Identity of a version of a file
+     * @param path (Path) - Absolute normalized path of the file
+     * @param modified (long) - Last modification time in milliseconds
+     * @param size (long) - Size of the file in bytes
+     */
+    private record Key(Path path, long modified, long size){}
+
+    /**
+     * Counters of the cache
+     * @param hits (long) - Number of requests served by the cache
+     * @param misses (long) - Number of requests not found in the cache
+     * @param loads (long) - Number of files decoded (misses waiting for a running load are not counted)
+     * @param evictions (long) - Number of entries evicted to respect the capacity
+     * @param entries (int) - Number of cached images
+     * @param bytes (long) - Decoded size of the cached images
+     */
+    public record Stats(long hits, long misses, long loads, long evictions, int entries, long bytes){
+
+        /**
+         * @return (double) - Share of the requests served by the cache, between 0 and 1
+         */
+        public double hitRate(){
+            long requests = hits + misses;
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+    }
+
+    private final long capacity;
+    private final LinkedHashMap<Key, Helper.Image> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentHashMap<Key, CompletableFuture<Helper.Image>> loading = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private long bytes;
+
+    /**
+     * Create an empty cache
+     * @param capacity (long) - Maximum decoded size of the cached images in bytes
+     * @throws AssertionError if capacity is not positive
+     */
+    public QOIImageCache(long capacity){
+        assert capacity > 0;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Return the decoded image of a "Quite Ok Image" file, decoding it on a miss.
+     * An image larger than the capacity is decoded but not cached
+     * @param path (Path) - Path of the file
+     * @return (Helper.Image) - The decoded image
+     * @throws AssertionError if path is null or the file is corrupted
+     */
+    public Helper.Image get(Path path){
+        assert path != null;
+        Key key = key(path);
+        Helper.Image image = lookup(key);
+        if (image != null){
+            hits.increment();
+            return image;
+        }
+        misses.increment();
+        var future = new CompletableFuture<Helper.Image>();
+        var running = loading.putIfAbsent(key, future);
+        if (running != null){
+            return await(running);
+        }
+        try {
+            // The image may have been stored between the lookup and the registration of the load
+            image = lookup(key);
+            if (image == null){
+                image = QOIDecoder.decodeQoiFile(key.path());
+                loads.increment();
+                store(key, image);
+            }
+            future.complete(image);
+            return image;
+        } catch (RuntimeException | Error e){
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    /**
+     * Remove every cached version of a file
+     * @param path (Path) - Path of the file
+     */
+    public void invalidate(Path path){
+        Path normalized = path.toAbsolutePath().normalize();
+        synchronized (entries){
+            entries.entrySet().removeIf(entry -> {
+                if (entry.getKey().path().equals(normalized)){
+                    bytes -= weight(entry.getValue());
+                    return true;
+                }
+                return false;
+            });
+        }
+    }
+
+    /**
+     * Remove every cached image (the counters are kept)
+     */
+    public void clear(){
+        synchronized (entries){
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    /**
+     * @return (Stats) - Snapshot of the counters of the cache
+     */
+    public Stats stats(){
+        synchronized (entries){
+            return new Stats(hits.sum(), misses.sum(), loads.sum(), evictions.sum(), entries.size(), bytes);
+        }
+    }
+
+    // ==================================================================================
+    // ================================ HELPER METHODS ==================================
+    // ==================================================================================
+
+    private Helper.Image lookup(Key key){
+        synchronized (entries){
+            return entries.get(key);
+        }
+    }
+
+    /**
+     * Store an image and evict the least recently used ones until the cache fits its capacity
+     * @param key (Key) - Key of the image
+     * @param image (Helper.Image) - Image to store
+     */
+    private void store(Key key, Helper.Image image){
+        long weight = weight(image);
+        if (weight > capacity){
+            return;
+        }
+        synchronized (entries){
+            Helper.Image previous = entries.put(key, image);
+            bytes += weight - (previous == null ? 0 : weight(previous));
+            Iterator<Map.Entry<Key, Helper.Image>> eldest = entries.entrySet().iterator();
+            while (bytes > capacity){
+                var entry = eldest.next();
+                bytes -= weight(entry.getValue());
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * @param image (Helper.Image) - Decoded image
+     * @return (long) - Size of its pixels in bytes
+     */
+    private static long weight(Helper.Image image){
+        return (long) image.data().length * image.data()[0].length * QOISpecification.RGBA;
+    }
+
+    private static Key key(Path path){
+        Path normalized = path.toAbsolutePath().normalize();
+        try {
+            var attributes = Files.readAttributes(normalized, BasicFileAttributes.class);
+            return new Key(normalized, attributes.lastModifiedTime().toMillis(), attributes.size());
+        } catch (IOException e){
+            return Helper.fail("An error occurred while trying to read from : \"%s\"%n", path);
+        }
+    }
+
+    /**
+     * Wait for the load run by another thread, rethrowing its failure as is
+     * @param running (CompletableFuture<Helper.Image>) - Running load
+     * @return (Helper.Image) - The loaded image
+     */
+    private static Helper.Image await(CompletableFuture<Helper.Image> running){
+        try {
+            return running.join();
+        } catch (CompletionException e){
+            if (e.getCause() instanceof RuntimeException cause){
+                throw cause;
+            } else if (e.getCause() instanceof Error cause){
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+}
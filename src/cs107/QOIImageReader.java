@@ -0,0 +1,216 @@
+package cs107;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * ImageIO reader of "Quite Ok Image" files. The rows are decoded one after the other
+ * and copied straight into the raster of the destination image. Source regions and
+ * subsampling are supported: the decoding stops after the last row of the region and
+ * only the selected pixels are copied. A file whose color space is {@link QOISpecification#ALL}
+ * is read as an image in the linear RGB color space, its samples being copied as is.
+ * @version 1.0
+ * @since 1.0
+ */
+public final class QOIImageReader extends ImageReader {
+
+    /**
+     * Masks of the red, green, blue and alpha samples of a packed ARGB pixel
+     */
+    private static final int[] ARGB_MASKS = {0x00_FF_00_00, 0x00_00_FF_00, 0x00_00_00_FF, 0xFF_00_00_00};
+
+    private long start;
+    private int[] header;
+
+    /**
+     * Create a reader (called by the service provider)
+     * @param provider (QOIImageReaderSpi) - Service provider creating the reader
+     */
+    QOIImageReader(QOIImageReaderSpi provider){
+        super(provider);
+    }
+
+    @Override
+    public void setInput(Object input, boolean seekForwardOnly, boolean ignoreMetadata){
+        super.setInput(input, seekForwardOnly, ignoreMetadata);
+        header = null;
+    }
+
+    @Override
+    public int getNumImages(boolean allowSearch){
+        return 1;
+    }
+
+    @Override
+    public int getWidth(int imageIndex) throws IOException {
+        return readHeader(imageIndex)[0];
+    }
+
+    @Override
+    public int getHeight(int imageIndex) throws IOException {
+        return readHeader(imageIndex)[1];
+    }
+
+    @Override
+    public Iterator<ImageTypeSpecifier> getImageTypes(int imageIndex) throws IOException {
+        return List.of(imageType(readHeader(imageIndex))).iterator();
+    }
+
+    @Override
+    public IIOMetadata getStreamMetadata(){
+        return null;
+    }
+
+    @Override
+    public IIOMetadata getImageMetadata(int imageIndex){
+        return null;
+    }
+
+    @Override
+    public BufferedImage read(int imageIndex, ImageReadParam param) throws IOException {
+        int[] info = readHeader(imageIndex);
+        int width = info[0];
+        int height = info[1];
+        BufferedImage destination = getDestination(param, getImageTypes(imageIndex), width, height);
+        var source = new Rectangle();
+        var target = new Rectangle();
+        computeRegions(param, width, height, destination, source, target);
+        int periodX = param == null ? 1 : param.getSourceXSubsampling();
+        int periodY = param == null ? 1 : param.getSourceYSubsampling();
+        boolean linear = info[3] == QOISpecification.ALL;
+        boolean direct = isPackedArgb(destination, linear);
+        // Linear pixels written to a destination of another color space are converted to sRGB first
+        var linearModel = linear && !direct ? imageType(info).getColorModel() : null;
+
+        processImageStarted(imageIndex);
+        var stream = (ImageInputStream) getInput();
+        stream.seek(start);
+        var decoder = new QOIStreamDecoder(asInputStream(stream));
+        int[] row = new int[width];
+        int[] selected = periodX == 1 ? row : new int[target.width];
+        int lastRow = source.y + (target.height - 1) * periodY;
+        for (int y = 0; y <= lastRow && !abortRequested(); ++y){
+            decoder.readRow(row);
+            if (y < source.y || (y - source.y) % periodY != 0){
+                continue;
+            }
+            int offset = source.x;
+            if (periodX != 1){
+                for (int i = 0; i < target.width; ++i){
+                    selected[i] = row[source.x + i * periodX];
+                }
+                offset = 0;
+            }
+            int destinationY = target.y + (y - source.y) / periodY;
+            if (direct && offset == 0){
+                destination.getRaster().setDataElements(target.x, destinationY, target.width, 1, selected);
+            } else if (linearModel != null){
+                for (int i = 0; i < target.width; ++i){
+                    selected[i] = linearModel.getRGB(row[source.x + i * periodX]);
+                }
+                destination.setRGB(target.x, destinationY, target.width, 1, selected, 0, width);
+            } else {
+                destination.setRGB(target.x, destinationY, target.width, 1, selected, offset, width);
+            }
+            processImageProgress(100f * (y + 1) / (lastRow + 1));
+        }
+        if (abortRequested()){
+            processReadAborted();
+        } else {
+            processImageComplete();
+        }
+        return destination;
+    }
+
+    /**
+     * @param info (int[]) - Header of the file: {width, height, channels, color space}
+     * @return (ImageTypeSpecifier) - Type of the images read from the file: packed ARGB (or RGB)
+     * pixels in the sRGB color space, or in the linear RGB color space if the header says so
+     */
+    private static ImageTypeSpecifier imageType(int[] info){
+        boolean alpha = info[2] == QOISpecification.RGBA;
+        if (info[3] == QOISpecification.ALL){
+            return ImageTypeSpecifier.createPacked(ColorSpace.getInstance(ColorSpace.CS_LINEAR_RGB),
+                    ARGB_MASKS[0], ARGB_MASKS[1], ARGB_MASKS[2], alpha ? ARGB_MASKS[3] : 0, DataBuffer.TYPE_INT, false);
+        }
+        return ImageTypeSpecifier.createFromBufferedImageType(alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * @param image (BufferedImage) - Destination of the pixels
+     * @param linear (boolean) - true if the pixels are in the linear RGB color space, false if they are in sRGB
+     * @return (boolean) - true if the pixels can be copied as is in the raster of the image
+     */
+    private static boolean isPackedArgb(BufferedImage image, boolean linear){
+        var space = image.getColorModel().getColorSpace();
+        if (image.isAlphaPremultiplied() || (linear ? space != ColorSpace.getInstance(ColorSpace.CS_LINEAR_RGB) : !space.isCS_sRGB())
+                || !(image.getSampleModel() instanceof SinglePixelPackedSampleModel model) || model.getDataType() != DataBuffer.TYPE_INT){
+            return false;
+        }
+        int[] masks = model.getBitMasks();
+        for (int i = 0; i < masks.length; ++i){
+            if (masks[i] != ARGB_MASKS[i]){
+                return false;
+            }
+        }
+        return masks.length >= 3;
+    }
+
+    /**
+     * Read the header of the image (only once per input)
+     * @param imageIndex (int) - Index of the image, a "Quite Ok Image" file contains only the image 0
+     * @return (int[]) - Array such as its content is {width, height, channels, color space}
+     * @throws IOException if the input is missing, cannot be read or is not a "Quite Ok Image" file
+     */
+    private int[] readHeader(int imageIndex) throws IOException {
+        if (imageIndex != 0){
+            throw new IndexOutOfBoundsException("A QOI file contains a single image, not " + imageIndex);
+        }
+        if (header == null){
+            if (!(getInput() instanceof ImageInputStream stream)){
+                throw new IllegalStateException("No input set");
+            }
+            start = stream.getStreamPosition();
+            byte[] bytes = new byte[QOISpecification.HEADER_SIZE];
+            stream.readFully(bytes);
+            if (!ArrayUtils.equals(ArrayUtils.extract(bytes, 0, QOISpecification.QOI_MAGIC.length), QOISpecification.QOI_MAGIC)){
+                throw new IIOException("Not a QOI file");
+            }
+            header = QOIDecoder.decodeHeader(bytes);
+        }
+        return header;
+    }
+
+    /**
+     * View an ImageInputStream as an InputStream without closing it
+     * @param stream (ImageInputStream) - Stream to read from
+     * @return (InputStream) - The view
+     */
+    private static InputStream asInputStream(ImageInputStream stream){
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                return stream.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return stream.read(b, off, len);
+            }
+        };
+    }
+
+}
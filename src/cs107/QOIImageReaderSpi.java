@@ -0,0 +1,60 @@
+package cs107;
+
+import javax.imageio.ImageReader;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Service provider registering the "Quite Ok Image" reader in ImageIO.
+ * It is found by ImageIO through "META-INF/services/javax.imageio.spi.ImageReaderSpi"
+ * @version 1.0
+ * @since 1.0
+ */
+public final class QOIImageReaderSpi extends ImageReaderSpi {
+
+    static final String VENDOR = "cs107";
+    static final String VERSION = "1.0";
+    static final String[] NAMES = {"qoi", "QOI"};
+    static final String[] SUFFIXES = {"qoi"};
+    static final String[] MIME_TYPES = {"image/qoi"};
+
+    /**
+     * Create the service provider (called by ImageIO)
+     */
+    public QOIImageReaderSpi(){
+        super(VENDOR, VERSION, NAMES, SUFFIXES, MIME_TYPES, QOIImageReader.class.getName(),
+                new Class<?>[]{ImageInputStream.class}, new String[]{QOIImageWriterSpi.class.getName()},
+                false, null, null, null, null,
+                false, null, null, null, null);
+    }
+
+    @Override
+    public boolean canDecodeInput(Object source) throws IOException {
+        if (!(source instanceof ImageInputStream stream)){
+            return false;
+        }
+        byte[] magic = new byte[QOISpecification.QOI_MAGIC.length];
+        stream.mark();
+        try {
+            stream.readFully(magic);
+        } catch (IOException e){
+            return false;
+        } finally {
+            stream.reset();
+        }
+        return ArrayUtils.equals(magic, QOISpecification.QOI_MAGIC);
+    }
+
+    @Override
+    public ImageReader createReaderInstance(Object extension){
+        return new QOIImageReader(this);
+    }
+
+    @Override
+    public String getDescription(Locale locale){
+        return "Quite Ok Image reader";
+    }
+
+}
@@ -0,0 +1,208 @@
+package cs107;
+
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.RenderedImage;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * ImageIO writer of "Quite Ok Image" files. The rows of the image are encoded one after
+ * the other and written to the output as the encoding goes. Images of type TYPE_INT_ARGB
+ * are encoded straight from their raster, other images are converted row by row.
+ * Images in the linear RGB color space are written with their samples as is and the
+ * {@link QOISpecification#ALL} color space, the other ones are converted to sRGB.
+ * The source region and the subsampling of the ImageWriteParam are honoured, the other
+ * parameters (source bands, destination type) are rejected with an IIOException.
+ * @version 1.0
+ * @since 1.0
+ */
+public final class QOIImageWriter extends ImageWriter {
+
+    /**
+     * Create a writer (called by the service provider)
+     * @param provider (QOIImageWriterSpi) - Service provider creating the writer
+     */
+    QOIImageWriter(QOIImageWriterSpi provider){
+        super(provider);
+    }
+
+    @Override
+    public IIOMetadata getDefaultStreamMetadata(ImageWriteParam param){
+        return null;
+    }
+
+    @Override
+    public IIOMetadata getDefaultImageMetadata(ImageTypeSpecifier imageType, ImageWriteParam param){
+        return null;
+    }
+
+    @Override
+    public IIOMetadata convertStreamMetadata(IIOMetadata inData, ImageWriteParam param){
+        return null;
+    }
+
+    @Override
+    public IIOMetadata convertImageMetadata(IIOMetadata inData, ImageTypeSpecifier imageType, ImageWriteParam param){
+        return null;
+    }
+
+    @Override
+    public void write(IIOMetadata streamMetadata, IIOImage image, ImageWriteParam param) throws IOException {
+        if (!(getOutput() instanceof ImageOutputStream stream)){
+            throw new IllegalStateException("No output set");
+        }
+        BufferedImage buffered = toBufferedImage(image.getRenderedImage());
+        var region = new Rectangle(0, 0, buffered.getWidth(), buffered.getHeight());
+        int xPeriod = 1;
+        int yPeriod = 1;
+        if (param != null){
+            if (param.getSourceBands() != null || param.getDestinationType() != null){
+                throw new IIOException("Only the source region and the subsampling parameters are supported");
+            }
+            if (param.getSourceRegion() != null){
+                region = region.intersection(param.getSourceRegion());
+            }
+            xPeriod = param.getSourceXSubsampling();
+            yPeriod = param.getSourceYSubsampling();
+            region.x += param.getSubsamplingXOffset();
+            region.y += param.getSubsamplingYOffset();
+            region.width -= param.getSubsamplingXOffset();
+            region.height -= param.getSubsamplingYOffset();
+        }
+        if (region.width <= 0 || region.height <= 0){
+            throw new IllegalArgumentException("The source region contains no pixels");
+        }
+        int width = (region.width + xPeriod - 1) / xPeriod;
+        int height = (region.height + yPeriod - 1) / yPeriod;
+        var model = buffered.getColorModel();
+        byte channels = model.hasAlpha() ? QOISpecification.RGBA : QOISpecification.RGB;
+        boolean linear = model.getColorSpace() == ColorSpace.getInstance(ColorSpace.CS_LINEAR_RGB);
+        byte colorSpace = linear ? QOISpecification.ALL : QOISpecification.sRGB;
+        int[] raster = linear || xPeriod != 1 ? null : argbRaster(buffered);
+        int[] source = raster == null ? new int[(width - 1) * xPeriod + 1] : null;
+        int[] row = raster == null ? new int[width] : null;
+        int[] samples = linear ? new int[source.length * buffered.getRaster().getNumBands()] : null;
+
+        processImageStarted(0);
+        try (var encoder = new QOIStreamEncoder(asOutputStream(stream), width, height, channels, colorSpace)){
+            for (int y = 0; y < height; ++y){
+                int sourceY = region.y + y * yPeriod;
+                if (raster != null){
+                    encoder.writePixels(raster, sourceY * buffered.getWidth() + region.x, width);
+                } else {
+                    if (linear){
+                        linearRow(buffered, region.x, sourceY, samples, source);
+                    } else {
+                        buffered.getRGB(region.x, sourceY, source.length, 1, source, 0, source.length);
+                    }
+                    for (int x = 0; x < width; ++x){
+                        row[x] = source[x * xPeriod];
+                    }
+                    encoder.writeRow(row);
+                }
+                processImageProgress(100f * (y + 1) / height);
+            }
+        }
+        processImageComplete();
+    }
+
+    /**
+     * Read a row of an image in the linear RGB color space without converting it to sRGB
+     * @param image (BufferedImage) - Image whose color space is linear RGB
+     * @param x (int) - Column of the first pixel
+     * @param y (int) - Row of the pixels
+     * @param samples (int[]) - Buffer for the samples of the pixels
+     * @param output (int[]) - Where to store the ARGB pixels, as many as its length
+     */
+    private static void linearRow(BufferedImage image, int x, int y, int[] samples, int[] output){
+        var model = image.getColorModel();
+        int bands = image.getRaster().getNumBands();
+        image.getRaster().getPixels(x, y, output.length, 1, samples);
+        for (int i = 0; i < output.length; ++i){
+            int offset = i * bands;
+            int alpha = model.hasAlpha() ? sample(model, samples, offset, 3, 0xFF) : 0xFF;
+            // A premultiplied component is divided back by the alpha
+            int scale = model.isAlphaPremultiplied() ? alpha : 0xFF;
+            output[i] = alpha << 24 | sample(model, samples, offset, 0, scale) << 16
+                    | sample(model, samples, offset, 1, scale) << 8 | sample(model, samples, offset, 2, scale);
+        }
+    }
+
+    /**
+     * @param model (ColorModel) - Color model of the samples
+     * @param samples (int[]) - Samples of the pixels
+     * @param offset (int) - Index of the first sample of the pixel
+     * @param component (int) - Index of the component in the pixel
+     * @param scale (int) - Value (at most 255) that the component is scaled to 255 from
+     * @return (int) - Component of the pixel as 8 bits
+     */
+    private static int sample(ColorModel model, int[] samples, int offset, int component, int scale){
+        long maximum = (1L << model.getComponentSize(component)) - 1;
+        if (scale == 0){
+            return 0;
+        }
+        return (int) Math.min(0xFF, Math.round(samples[offset + component] * 255.0 * 255.0 / (maximum * scale)));
+    }
+
+    /**
+     * @param image (BufferedImage) - Image to encode
+     * @return (int[]) - ARGB pixels of the image stored row after row without padding, null if they are stored otherwise
+     */
+    private static int[] argbRaster(BufferedImage image){
+        var raster = image.getRaster();
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB && raster.getDataBuffer() instanceof DataBufferInt buffer
+                && buffer.getNumBanks() == 1 && buffer.getOffset() == 0
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel model && model.getScanlineStride() == image.getWidth()){
+            return buffer.getData();
+        }
+        return null;
+    }
+
+    private static BufferedImage toBufferedImage(RenderedImage image){
+        if (image instanceof BufferedImage buffered){
+            return buffered;
+        }
+        var model = image.getColorModel();
+        var raster = model.createCompatibleWritableRaster(image.getWidth(), image.getHeight());
+        image.copyData(raster);
+        return new BufferedImage(model, raster, model.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * View an ImageOutputStream as an OutputStream, closing the view does not close the stream
+     * @param stream (ImageOutputStream) - Stream to write to
+     * @return (OutputStream) - The view
+     */
+    private static OutputStream asOutputStream(ImageOutputStream stream){
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                stream.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                stream.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                stream.flush();
+            }
+        };
+    }
+
+}
@@ -0,0 +1,44 @@
+package cs107;
+
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageOutputStream;
+import java.util.Locale;
+
+/**
+ * Service provider registering the "Quite Ok Image" writer in ImageIO.
+ * It is found by ImageIO through "META-INF/services/javax.imageio.spi.ImageWriterSpi"
+ * @version 1.0
+ * @since 1.0
+ */
+public final class QOIImageWriterSpi extends ImageWriterSpi {
+
+    /**
+     * Create the service provider (called by ImageIO)
+     */
+    public QOIImageWriterSpi(){
+        super(QOIImageReaderSpi.VENDOR, QOIImageReaderSpi.VERSION, QOIImageReaderSpi.NAMES, QOIImageReaderSpi.SUFFIXES,
+                QOIImageReaderSpi.MIME_TYPES, QOIImageWriter.class.getName(),
+                new Class<?>[]{ImageOutputStream.class}, new String[]{QOIImageReaderSpi.class.getName()},
+                false, null, null, null, null,
+                false, null, null, null, null);
+    }
+
+    @Override
+    public boolean canEncodeImage(ImageTypeSpecifier type){
+        // Every image can be converted to ARGB pixels
+        return true;
+    }
+
+    @Override
+    public ImageWriter createWriterInstance(Object extension){
+        return new QOIImageWriter(this);
+    }
+
+    @Override
+    public String getDescription(Locale locale){
+        return "Quite Ok Image writer";
+    }
+
+}
@@ -0,0 +1,239 @@
+package cs107;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Restart points allowing to decode a plain "Quite Ok Image" file in parallel.
+ * A first sequential pass over the file records, every interval pixels, the
+ * state of the decoder (position in the data, previous pixel, index table and
+ * pixels of a run still to be written). The decoding can then start from any
+ * of these checkpoints, so each part of the image is decoded by its own task.
+ * The file itself is not modified: the checkpoints are stored in a sidecar index
+ * <pre>
+ * magic "qoix" | version | file size | modified | width | height | interval | count | checkpoints...
+ * checkpoint = offset | previous pixel | run | index table (64 pixels)
+ * </pre>
+ * where the file size and its last modification time (in milliseconds, 0 if unknown)
+ * are big endian longs (8 bytes) and every other field is a big endian integer (4 bytes).
+ * An index whose file size, modification time, dimensions or checkpoints do not match
+ * the file is rejected.
+ * @version 1.0
+ * @since 1.0
+ */
+public final class QOIIndex {
+
+    /**
+     * DO NOT CHANGE THIS, MORE ON THAT IN WEEK 7.
+     */
+    private QOIIndex(){}
+
+    /**
+     * Magic Number of an index file
+     */
+    public static final byte[] QOI_INDEX_MAGIC = new byte[]{'q', 'o', 'i', 'x'};
+
+    /**
+     * Version of the layout of an index file
+     */
+    public static final int VERSION = 2;
+
+    /**
+     * Extension added to the name of a "Quite Ok Image" file to name its index
+     */
+    public static final String EXTENSION = ".idx";
+
+    /**
+     * Default number of pixels between two checkpoints
+     */
+    public static final int DEFAULT_INTERVAL = 1 << 18;
+
+    private static final int HEADER_SIZE = QOI_INDEX_MAGIC.length + 4 * 5 + 8 * 2;
+
+    private static final int CHECKPOINT_SIZE = 4 * (3 + 64);
+
+    // ==================================================================================
+    // ==================================== INDEXING ====================================
+    // ==================================================================================
+
+    /**
+     * Build the index of a "Quite Ok Image" file whose modification time is unknown
+     * @param content (byte[]) - Content of the file to index
+     * @param interval (int) - Number of pixels between two checkpoints
+     * @return (byte[]) - Content of the index
+     * @throws AssertionError if content is null or corrupted, or interval is not positive
+     */
+    public static byte[] index(byte[] content, int interval){
+        return index(content, 0, interval);
+    }
+
+    /**
+     * Build the index of a "Quite Ok Image" file
+     * @param content (byte[]) - Content of the file to index
+     * @param modified (long) - Last modification time of the file in milliseconds, 0 if unknown
+     * @param interval (int) - Number of pixels between two checkpoints
+     * @return (byte[]) - Content of the index
+     * @throws AssertionError if content is null or corrupted, or interval is not positive
+     */
+    public static byte[] index(byte[] content, long modified, int interval){
+        assert content != null && interval > 0;
+        int[] headerInfo = QOIDecoder.decodeHeader(ArrayUtils.extract(content, 0, QOISpecification.HEADER_SIZE));
+        long pixels = (long) headerInfo[0] * headerInfo[1];
+        int count = (int) ((pixels + interval - 1) / interval);
+        int end = content.length - QOISpecification.QOI_EOF.length;
+
+        var index = ByteBuffer.allocate(HEADER_SIZE + count * CHECKPOINT_SIZE);
+        index.put(QOI_INDEX_MAGIC).putInt(VERSION).putLong(content.length).putLong(modified)
+                .putInt(headerInfo[0]).putInt(headerInfo[1]).putInt(interval).putInt(count);
+
+        var state = new QOIDecoder.State();
+        int[] scratch = new int[(int) Math.min(interval, pixels)];
+        int idx = QOISpecification.HEADER_SIZE;
+        for (int i = 0; i < count; ++i){
+            index.putInt(idx).putInt(state.previousPixel).putInt(state.run);
+            for (int pixel : state.hashTable){
+                index.putInt(pixel);
+            }
+            state.position = 0;
+            int limit = (int) Math.min(interval, pixels - (long) i * interval);
+            idx = QOIDecoder.decodePixels(state, content, idx, end, scratch, limit);
+            assert state.position == limit;
+        }
+        assert idx == end && state.run == 0;
+        return index.array();
+    }
+
+    /**
+     * Build the index of a "Quite Ok Image" file and store it next to the file
+     * @param path (Path) - Path of the file to index
+     * @param interval (int) - Number of pixels between two checkpoints
+     * @return (Path) - Path of the index
+     * @throws AssertionError if path is null, the file is corrupted or interval is not positive
+     */
+    public static Path indexFile(Path path, int interval){
+        assert path != null;
+        var indexPath = indexPath(path);
+        try {
+            // Read before the content, so that a file modified meanwhile does not match its index
+            long modified = Files.getLastModifiedTime(path).toMillis();
+            Files.write(indexPath, index(Files.readAllBytes(path), modified, interval));
+            return indexPath;
+        } catch (IOException e){
+            return Helper.fail("An error occurred while trying to index : \"%s\"%n", path);
+        }
+    }
+
+    /**
+     * @param path (Path) - Path of a "Quite Ok Image" file
+     * @return (Path) - Path of its index
+     */
+    public static Path indexPath(Path path){
+        return path.resolveSibling(path.getFileName() + EXTENSION);
+    }
+
+    // ==================================================================================
+    // ================================ PARALLEL DECODING ===============================
+    // ==================================================================================
+
+    /**
+     * Decode a "Quite Ok Image" file using its index, the part of the image
+     * following each checkpoint being decoded by a task of the pool
+     * @param content (byte[]) - Content of the file to decode
+     * @param index (byte[]) - Content of the index of the file
+     * @param pool (ForkJoinPool) - Pool running the decoding
+     * @return (Helper.Image) - Decoded image
+     * @throws AssertionError if one of the parameters is null, the content is corrupted
+     * or the index does not belong to the file
+     */
+    public static Helper.Image decodeQoiFile(byte[] content, byte[] index, ForkJoinPool pool){
+        return decodeQoiFile(content, 0, index, pool);
+    }
+
+    /**
+     * Decode a "Quite Ok Image" file using its index
+     * @param content (byte[]) - Content of the file to decode
+     * @param modified (long) - Last modification time of the file in milliseconds, 0 if unknown
+     * @param index (byte[]) - Content of the index of the file
+     * @param pool (ForkJoinPool) - Pool running the decoding
+     * @return (Helper.Image) - Decoded image
+     * @throws AssertionError if one of the parameters is null, the content is corrupted
+     * or the index does not belong to the file
+     */
+    private static Helper.Image decodeQoiFile(byte[] content, long modified, byte[] index, ForkJoinPool pool){
+        assert content != null && index != null && pool != null;
+        int[] headerInfo = QOIDecoder.decodeHeader(ArrayUtils.extract(content, 0, QOISpecification.HEADER_SIZE));
+        int end = content.length - QOISpecification.QOI_EOF.length;
+        assert ArrayUtils.equals(ArrayUtils.extract(content, end, QOISpecification.QOI_EOF.length), QOISpecification.QOI_EOF);
+
+        assert index.length >= HEADER_SIZE : "Not an index";
+        var buffer = ByteBuffer.wrap(index);
+        byte[] magic = new byte[QOI_INDEX_MAGIC.length];
+        buffer.get(magic);
+        assert ArrayUtils.equals(magic, QOI_INDEX_MAGIC) : "Not an index";
+        int version = buffer.getInt();
+        assert version == VERSION : "Unsupported index version";
+        long size = buffer.getLong();
+        long indexed = buffer.getLong();
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        assert size == content.length && width == headerInfo[0] && height == headerInfo[1] : "The index belongs to another file";
+        assert modified == 0 || indexed == 0 || modified == indexed : "The file was modified after it was indexed";
+        int interval = buffer.getInt();
+        int count = buffer.getInt();
+        int[] pixels = new int[Math.multiplyExact(headerInfo[0], headerInfo[1])];
+        assert interval > 0 && count == (pixels.length + (long) interval - 1) / interval
+                && buffer.remaining() == (long) count * CHECKPOINT_SIZE : "Corrupted index";
+
+        var tasks = new ArrayList<ForkJoinTask<?>>(count);
+        int previous = QOISpecification.HEADER_SIZE;
+        for (int i = 0; i < count; ++i){
+            var state = new QOIDecoder.State();
+            int from = buffer.getInt();
+            state.previousPixel = buffer.getInt();
+            state.run = buffer.getInt();
+            for (int j = 0; j < state.hashTable.length; ++j){
+                state.hashTable[j] = buffer.getInt();
+            }
+            // The first checkpoint starts after the header and the next ones never go backwards.
+            // Every checkpoint but one ending a run still has data to decode before the end of file
+            assert i > 0 || from == QOISpecification.HEADER_SIZE : "Corrupted index";
+            assert from >= previous && (from < end || state.run > 0) : "Corrupted index";
+            assert state.run >= 0 && state.run < 62 : "Corrupted index";
+            previous = from;
+            state.position = i * interval;
+            int limit = (int) Math.min(pixels.length, (long) (i + 1) * interval);
+            tasks.add(pool.submit(() -> {
+                QOIDecoder.decodePixels(state, content, from, end, pixels, limit);
+                assert state.position == limit;
+            }));
+        }
+        for (var task : tasks){
+            task.join();
+        }
+        return Helper.generateImage(ArrayUtils.pixelsToImage(pixels, headerInfo[1], headerInfo[0]), (byte) headerInfo[2], (byte) headerInfo[3]);
+    }
+
+    /**
+     * Decode a "Quite Ok Image" file using the index stored next to it
+     * @param path (Path) - Path of the file to decode
+     * @param pool (ForkJoinPool) - Pool running the decoding
+     * @return (Helper.Image) - Decoded image
+     * @throws AssertionError if one of the parameters is null, the content is corrupted
+     * or the index does not belong to the file
+     */
+    public static Helper.Image decodeQoiFile(Path path, ForkJoinPool pool){
+        assert path != null && pool != null;
+        try {
+            long modified = Files.getLastModifiedTime(path).toMillis();
+            return decodeQoiFile(Files.readAllBytes(path), modified, Files.readAllBytes(indexPath(path)), pool);
+        } catch (IOException e){
+            return Helper.fail("An error occurred while trying to read from : \"%s\"%n", path);
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+package cs107;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Read the dimensions of "Quite Ok Image" files without decoding them.
+ * Only the {@link QOISpecification#HEADER_SIZE} first bytes of a file are read,
+ * so probing a file costs a single small read instead of a full decoding.
+ * @version 1.0
+ * @since 1.0
+ */
+public final class QOIProbe {
+
+    /**
+     * DO NOT CHANGE THIS, MORE ON THAT IN WEEK 7.
+     */
+    private QOIProbe(){}
+
+    // ==================================================================================
+    // ================================ SINGLE FILE =====================================
+    // ==================================================================================
+
+    /**
+     * Read the header of a "Quite Ok Image" file
+     * @param path (Path) - Path of the file
+     * @return (int[]) - Array such as its content is {width, height, channels, color space}
+     * @throws AssertionError if path is null or the file does not start with a valid header
+     */
+    public static int[] probe(Path path){
+        assert path != null;
+        try (var channel = FileChannel.open(path)){
+            return probe(channel);
+        } catch (IOException e){
+            return Helper.fail("An error occurred while trying to read from : \"%s\"%n", path);
+        }
+    }
+
+    /**
+     * Read the header of a "Quite Ok Image" file from a channel.
+     * The channel is left right after the header and is not closed
+     * @param channel (ReadableByteChannel) - Channel positioned at the start of the file
+     * @return (int[]) - Array such as its content is {width, height, channels, color space}
+     * @throws IOException if the channel cannot be read or ends before the end of the header
+     * @throws AssertionError if channel is null or the header is not valid
+     */
+    public static int[] probe(ReadableByteChannel channel) throws IOException {
+        assert channel != null;
+        byte[] header = readHeader(channel);
+        assert isValid(header);
+        return QOIDecoder.decodeHeader(header);
+    }
+
+    // ==================================================================================
+    // ================================= BULK PROBE =====================================
+    // ==================================================================================
+
+    /**
+     * Read the headers of many files, each file being probed by a task of the pool.
+     * Files that cannot be read or that are not "Quite Ok Image" files are left out of the result
+     * @param paths (Collection<Path>) - Paths of the files
+     * @param pool (ForkJoinPool) - Pool running the probes
+     * @return (Map<Path, int[]>) - Header of each valid file, as {width, height, channels, color space}
+     * @throws AssertionError if paths or pool is null or paths contains null
+     */
+    public static Map<Path, int[]> probeAll(Collection<Path> paths, ForkJoinPool pool){
+        assert paths != null && pool != null && paths.stream().allMatch(Objects::nonNull);
+        var headers = new ConcurrentHashMap<Path, int[]>(paths.size());
+        // A parallel stream started from a task of the pool runs in that pool
+        pool.submit(() -> paths.parallelStream().forEach(path -> {
+            try (var channel = FileChannel.open(path)){
+                byte[] header = readHeader(channel);
+                if (isValid(header)){
+                    headers.put(path, QOIDecoder.decodeHeader(header));
+                }
+            } catch (IOException e){
+                // Not readable, left out of the result
+            }
+        })).join();
+        return headers;
+    }
+
+    // ==================================================================================
+    // ================================ HEADER BYTES ====================================
+    // ==================================================================================
+
+    /**
+     * Read exactly {@link QOISpecification#HEADER_SIZE} bytes from the channel
+     * @param channel (ReadableByteChannel) - Channel to read from
+     * @return (byte[]) - The bytes of the header
+     * @throws IOException if the channel cannot be read or ends before the end of the header
+     */
+    private static byte[] readHeader(ReadableByteChannel channel) throws IOException {
+        var header = ByteBuffer.allocate(QOISpecification.HEADER_SIZE);
+        while (header.hasRemaining()){
+            if (channel.read(header) < 0){
+                throw new EOFException("The file ends before the end of the header");
+            }
+        }
+        return header.array();
+    }
+
+    /**
+     * Check the header without using assertions, so that it still holds when they are disabled
+     * @param header (byte[]) - Bytes of the header
+     * @return (boolean) - true if the bytes are a valid "Quite Ok Image" header, false otherwise
+     */
+    private static boolean isValid(byte[] header){
+        return QOIDecoder.startsWith(header, 0, QOISpecification.QOI_MAGIC)
+                && QOIDecoder.readInt(header, 4) > 0 && QOIDecoder.readInt(header, 8) > 0
+                && (header[12] == QOISpecification.RGB || header[12] == QOISpecification.RGBA)
+                && (header[13] == QOISpecification.ALL || header[13] == QOISpecification.sRGB);
+    }
+
+}
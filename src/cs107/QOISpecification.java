@@ -77,6 +77,11 @@ public final class QOISpecification {
      */
     public static final byte[] START_PIXEL = new byte[]{0, 0, 0, (byte) 255};
 
+    /**
+     * "START_PIXEL" packed as an ARGB integer
+     */
+    public static final int START_PIXEL_ARGB = 0xFF_00_00_00;
+
     // ==================================================================================
     // ============================ "Quite Ok Image" EOF ================================
     // ==================================================================================
@@ -136,4 +141,15 @@ public final class QOISpecification {
         return (byte) (tmp < 0 ? tmp + 64 : tmp);
     }
 
+    /**
+     * Hash a given packed pixel using the hash function specific to "Quite Ok Image" format
+     * @apiNote Same value as {@link #hash(byte[])} on the corresponding RGBA pixel
+     * @param pixel (int) - ARGB packed pixel to hash
+     * @return (int) - hash of the pixel
+     */
+    public static int hash(int pixel){
+        var tmp = ((pixel >>> 16) & 0xFF) * 3 + ((pixel >>> 8) & 0xFF) * 5 + (pixel & 0xFF) * 7 + (pixel >>> 24) * 11;
+        return tmp & 0b0011_1111;
+    }
+
 }
\ No newline at end of file
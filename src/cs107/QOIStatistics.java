@@ -0,0 +1,276 @@
+package cs107;
+
+import java.util.Arrays;
+
+/**
+ * Distribution of the operations used to encode "Quite Ok Image" data.
+ * The statistics are computed by a separate pass over the encoded chunks, so the
+ * encoding and decoding loops are not changed and cost nothing more when no
+ * collector is given. A {@link Collector} accumulates the chunks of one or many
+ * images and produces an immutable {@link Report}. Consecutive QOI_OP_RUN chunks
+ * make a single run, whose length is counted in a histogram of power of two buckets
+ * @version 1.0
+ * @since 1.0
+ */
+public final class QOIStatistics {
+
+    /**
+     * DO NOT CHANGE THIS, MORE ON THAT IN WEEK 7.
+     */
+    private QOIStatistics(){}
+
+    /**
+     * Operations of the "Quite Ok Image" Protocol, in the order of the operation codes of the decoder
+     */
+    public enum Op {
+        INDEX, DIFF, LUMA, RUN, RGB, RGBA;
+
+        private static final Op[] VALUES = values();
+
+        /**
+         * @param tag (int) - First byte of a chunk (unsigned)
+         * @return (Op) - Operation of the chunk
+         */
+        static Op of(int tag){
+            return VALUES[QOIDecoder.op(tag)];
+        }
+    }
+
+    /**
+     * Number of buckets of the histogram of the run lengths, enough for any long length
+     */
+    public static final int RUN_BUCKETS = Long.SIZE - 1;
+
+    /**
+     * @param length (long) - Length of a run, positive
+     * @return (int) - Bucket of the run lengths holding this length: bucket b holds the lengths
+     * from 2^b to 2^(b+1) - 1
+     */
+    public static int bucket(long length){
+        assert length > 0;
+        return Long.SIZE - 1 - Long.numberOfLeadingZeros(length);
+    }
+
+    // ==================================================================================
+    // ================================== COLLECTOR =====================================
+    // ==================================================================================
+
+    /**
+     * Accumulate the operations of encoded data.
+     * A collector is not thread safe, use one collector per thread
+     */
+    public static final class Collector {
+
+        private final long[] counts = new long[Op.values().length];
+        private final long[] bytes = new long[Op.values().length];
+        private final long[] runs = new long[RUN_BUCKETS];
+        private long runPixels;
+        private long images;
+        private long pixels;
+
+        /**
+         * Length of the run of the current image still going on at the end of the last chunk, 0 if none
+         */
+        private long pendingRun;
+
+        /**
+         * Add the chunks of a "Quite Ok Image" file
+         * @param content (byte[]) - Content of the file
+         * @throws AssertionError if content is null or corrupted
+         */
+        public void acceptFile(byte[] content){
+            QOIDecoder.checkFile(content);
+            acceptData(content, QOISpecification.HEADER_SIZE, content.length - QOISpecification.QOI_EOF.length);
+        }
+
+        /**
+         * Add the chunks found in a range of encoded data, as those of one image
+         * @param data (byte[]) - Array containing the encoded data
+         * @param from (int) - Index of the first chunk
+         * @param to (int) - Index after the last chunk
+         * @throws AssertionError if data is null, the range is invalid or a chunk is cut by its end
+         */
+        public void acceptData(byte[] data, int from, int to){
+            acceptChunks(data, from, to);
+            endImage();
+        }
+
+        /**
+         * Add the chunks found in a range of encoded data, as the next chunks of the current image.
+         * A run may go on from one range to the next
+         * @param data (byte[]) - Array containing the encoded data
+         * @param from (int) - Index of the first chunk
+         * @param to (int) - Index after the last chunk
+         * @throws AssertionError if data is null, the range is invalid or a chunk is cut by its end
+         */
+        public void acceptChunks(byte[] data, int from, int to){
+            assert data != null && from >= 0 && from <= to && to <= data.length;
+            int idx = from;
+            while (idx < to){
+                int tag = data[idx] & 0xFF;
+                int size = QOIDecoder.chunkSize(tag);
+                Op op = Op.of(tag);
+                counts[op.ordinal()] += 1;
+                bytes[op.ordinal()] += size;
+                if (op == Op.RUN){
+                    pendingRun += (tag & 0b0011_1111) + 1;
+                } else {
+                    endRun();
+                    pixels += 1;
+                }
+                idx += size;
+            }
+            assert idx == to : "The last chunk is cut by the end of the range";
+        }
+
+        /**
+         * End the current image: the chunks added next belong to another image
+         */
+        public void endImage(){
+            endRun();
+            images += 1;
+        }
+
+        /**
+         * @return (Report) - Statistics of the chunks added so far (a run still going on is not counted)
+         */
+        public Report report(){
+            return new Report(images, pixels, counts, bytes, runs, runPixels);
+        }
+
+        private void endRun(){
+            if (pendingRun > 0){
+                runs[bucket(pendingRun)] += 1;
+                runPixels += pendingRun;
+                pixels += pendingRun;
+                pendingRun = 0;
+            }
+        }
+    }
+
+    // ==================================================================================
+    // ==================================== REPORT ======================================
+    // ==================================================================================
+
+    /**
+     * Immutable statistics of encoded data
+     */
+    public static final class Report {
+
+        private final long images;
+        private final long pixels;
+        private final long[] counts;
+        private final long[] bytes;
+        private final long[] runs;
+        private final long runPixels;
+
+        private Report(long images, long pixels, long[] counts, long[] bytes, long[] runs, long runPixels){
+            this.images = images;
+            this.pixels = pixels;
+            this.counts = counts.clone();
+            this.bytes = bytes.clone();
+            this.runs = runs.clone();
+            this.runPixels = runPixels;
+        }
+
+        /**
+         * @return (long) - Number of images
+         */
+        public long images(){
+            return images;
+        }
+
+        /**
+         * @return (long) - Number of encoded pixels
+         */
+        public long pixels(){
+            return pixels;
+        }
+
+        /**
+         * @param op (Op) - Operation
+         * @return (long) - Number of chunks of this operation
+         */
+        public long count(Op op){
+            return counts[op.ordinal()];
+        }
+
+        /**
+         * @param op (Op) - Operation
+         * @return (long) - Number of bytes used by the chunks of this operation
+         */
+        public long bytes(Op op){
+            return bytes[op.ordinal()];
+        }
+
+        /**
+         * @return (long) - Number of bytes of the encoded data
+         */
+        public long bytes(){
+            return Arrays.stream(bytes).sum();
+        }
+
+        /**
+         * @return (long) - Number of runs, a run being made of consecutive QOI_OP_RUN chunks
+         */
+        public long runs(){
+            return Arrays.stream(runs).sum();
+        }
+
+        /**
+         * @param bucket (int) - Bucket of the run lengths, between 0 and {@link #RUN_BUCKETS} - 1 (See {@link #bucket(long)})
+         * @return (long) - Number of runs whose length is between 2^bucket and 2^(bucket+1) - 1
+         */
+        public long runs(int bucket){
+            assert bucket >= 0 && bucket < RUN_BUCKETS;
+            return runs[bucket];
+        }
+
+        /**
+         * @return (long) - Number of pixels encoded by the runs
+         */
+        public long runPixels(){
+            return runPixels;
+        }
+
+        /**
+         * Share of the pixels looked up in the index table (every pixel that is not part of a run)
+         * that were found in it
+         * @return (double) - Hit rate of the index table, between 0 and 1
+         */
+        public double indexHitRate(){
+            long lookups = pixels - runPixels();
+            return lookups == 0 ? 0 : (double) count(Op.INDEX) / lookups;
+        }
+
+        /**
+         * @return (double) - Share of the pixels stored as raw QOI_OP_RGB or QOI_OP_RGBA, between 0 and 1
+         */
+        public double rawRate(){
+            return pixels == 0 ? 0 : (double) (count(Op.RGB) + count(Op.RGBA)) / pixels;
+        }
+
+        /**
+         * @return (double) - Average number of bytes per pixel
+         */
+        public double bytesPerPixel(){
+            return pixels == 0 ? 0 : (double) bytes() / pixels;
+        }
+
+        @Override
+        public String toString(){
+            var builder = new StringBuilder(String.format("%d images, %d pixels, %d bytes (%.3f bytes/pixel), index hit rate %.2f %%, raw %.2f %%",
+                    images, pixels, bytes(), bytesPerPixel(), 100 * indexHitRate(), 100 * rawRate()));
+            for (Op op : Op.values()){
+                builder.append(String.format("%n  %-5s %12d chunks %12d bytes", op, count(op), bytes(op)));
+            }
+            for (int bucket = 0; bucket < RUN_BUCKETS; ++bucket){
+                if (runs[bucket] > 0){
+                    builder.append(String.format("%n  runs of %d to %d pixels %12d", 1L << bucket, (1L << bucket) * 2 - 1, runs[bucket]));
+                }
+            }
+            return builder.toString();
+        }
+    }
+
+}
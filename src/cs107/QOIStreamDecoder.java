@@ -0,0 +1,240 @@
+package cs107;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * "Quite Ok Image" Decoder working on a stream of bytes.
+ * The header is read when the decoder is created, then the image is
+ * decoded one row at a time while the bytes arrive. A chunk cut by the
+ * end of the available bytes is kept until the rest of it is received.
+ * @apiNote The source is closed when the decoder is closed
+ * @version 1.0
+ * @since 1.0
+ */
+public final class QOIStreamDecoder implements Closeable {
+
+    /**
+     * Default size of the internal buffer (in bytes)
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final InputStream stream;
+    private final ReadableByteChannel channel;
+    private final byte[] buffer;
+    private final ByteBuffer view;
+    private final QOIDecoder.State state = new QOIDecoder.State();
+    private final int width;
+    private final int height;
+    private final byte channels;
+    private final byte colorSpace;
+    private int start;
+    private int end;
+    private int row;
+
+    /**
+     * Create a decoder reading from the given stream and read the header
+     * @param source (InputStream) - Stream containing a "Quite Ok Image" file
+     * @throws IOException if the source cannot be read or ends before the end of the header
+     * @throws AssertionError if the source is null or the header is corrupted
+     */
+    public QOIStreamDecoder(InputStream source) throws IOException {
+        this(source, null, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create a decoder reading from the given channel and read the header
+     * @param source (ReadableByteChannel) - Channel containing a "Quite Ok Image" file
+     * @throws IOException if the source cannot be read or ends before the end of the header
+     * @throws AssertionError if the source is null or the header is corrupted
+     */
+    public QOIStreamDecoder(ReadableByteChannel source) throws IOException {
+        this(null, source, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create a decoder reading from the given channel and read the header
+     * @param source (ReadableByteChannel) - Channel containing a "Quite Ok Image" file
+     * @param bufferSize (int) - Size of the internal buffer (in bytes)
+     * @throws IOException if the source cannot be read or ends before the end of the header
+     * @throws AssertionError if the source is null, the header is corrupted
+     * or the buffer cannot hold the header
+     */
+    public QOIStreamDecoder(ReadableByteChannel source, int bufferSize) throws IOException {
+        this(null, source, bufferSize);
+    }
+
+    private QOIStreamDecoder(InputStream stream, ReadableByteChannel channel, int bufferSize) throws IOException {
+        assert (stream != null || channel != null) && bufferSize >= QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length;
+        this.stream = stream;
+        this.channel = channel;
+        this.buffer = new byte[bufferSize];
+        this.view = ByteBuffer.wrap(buffer);
+        require(QOISpecification.HEADER_SIZE);
+        int[] header = QOIDecoder.decodeHeader(ArrayUtils.extract(buffer, start, QOISpecification.HEADER_SIZE));
+        start += QOISpecification.HEADER_SIZE;
+        this.width = header[0];
+        this.height = header[1];
+        this.channels = (byte) header[2];
+        this.colorSpace = (byte) header[3];
+    }
+
+    // ==================================================================================
+    // ================================ HEADER ACCESSORS ================================
+    // ==================================================================================
+
+    /**
+     * @return (int) - Width of the image
+     */
+    public int width(){
+        return width;
+    }
+
+    /**
+     * @return (int) - Height of the image
+     */
+    public int height(){
+        return height;
+    }
+
+    /**
+     * @return (byte) - Number of channels of the image
+     */
+    public byte channels(){
+        return channels;
+    }
+
+    /**
+     * @return (byte) - Color space of the image
+     */
+    public byte colorSpace(){
+        return colorSpace;
+    }
+
+    /**
+     * @return (int) - Number of rows already decoded
+     */
+    public int rowsRead(){
+        return row;
+    }
+
+    // ==================================================================================
+    // ================================= ROWS OUTPUT ====================================
+    // ==================================================================================
+
+    /**
+     * Decode the next row of the image in the given buffer.
+     * Once the last row is decoded, the "Quite Ok Image" end of file is checked
+     * @param output (int[]) - Buffer where to store the ARGB pixels of the row, it can be reused between calls
+     * @return (boolean) - false if all the rows were already decoded, true otherwise
+     * @throws IOException if the source cannot be read or ends before the end of the image
+     * @throws AssertionError if the buffer is null or smaller than the width,
+     * or if the data is corrupted
+     */
+    public boolean readRow(int[] output) throws IOException {
+        assert output != null && output.length >= width;
+        if (row == height){
+            return false;
+        }
+        state.position = 0;
+        start = QOIDecoder.decodePixels(state, buffer, start, end, output, width);
+        while (state.position < width){
+            if (!fill()){
+                throw new EOFException("The stream ended in row " + row + " of " + height);
+            }
+            start = QOIDecoder.decodePixels(state, buffer, start, end, output, width);
+        }
+        row += 1;
+        if (row == height){
+            checkEnd();
+        }
+        return true;
+    }
+
+    /**
+     * Decode all the remaining rows and give them to the consumer as soon as they are complete
+     * @apiNote The same array is given for every row, its content is only valid during the call
+     * @param consumer (ObjIntConsumer<int[]>) - Receives the ARGB pixels of a row and the index of the row
+     * @throws IOException if the source cannot be read or ends before the end of the image
+     * @throws AssertionError if the consumer is null or the data is corrupted
+     */
+    public void readRows(ObjIntConsumer<int[]> consumer) throws IOException {
+        assert consumer != null;
+        int[] output = new int[width];
+        while (readRow(output)){
+            consumer.accept(output, row - 1);
+        }
+    }
+
+    /**
+     * Close the source
+     * @throws IOException if the source cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (stream != null){
+            stream.close();
+        } else {
+            channel.close();
+        }
+    }
+
+    // ==================================================================================
+    // ================================= BUFFER HANDLING ================================
+    // ==================================================================================
+
+    /**
+     * Check that the data ends with the "Quite Ok Image" end of file
+     * @throws IOException if the source cannot be read or ends before the end of file
+     */
+    private void checkEnd() throws IOException {
+        assert state.run == 0 : "The last run goes past the end of the image";
+        require(QOISpecification.QOI_EOF.length);
+        assert ArrayUtils.equals(ArrayUtils.extract(buffer, start, QOISpecification.QOI_EOF.length), QOISpecification.QOI_EOF) : "Missing end of file";
+        start += QOISpecification.QOI_EOF.length;
+    }
+
+    /**
+     * Read until at least the given number of bytes are available in the buffer
+     * @param count (int) - Number of bytes needed
+     * @throws IOException if the source cannot be read or ends before
+     */
+    private void require(int count) throws IOException {
+        while (end - start < count){
+            if (!fill()){
+                throw new EOFException("The stream ended before the end of the file");
+            }
+        }
+    }
+
+    /**
+     * Move the unread bytes to the beginning of the buffer and read more bytes after them
+     * @return (boolean) - false if the end of the source was reached, true otherwise
+     * @throws IOException if the source cannot be read
+     */
+    private boolean fill() throws IOException {
+        if (start > 0){
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        int read;
+        if (stream != null){
+            read = stream.read(buffer, end, buffer.length - end);
+        } else {
+            view.limit(buffer.length).position(end);
+            read = channel.read(view);
+        }
+        if (read < 0){
+            return false;
+        }
+        end += read;
+        return true;
+    }
+
+}
@@ -0,0 +1,166 @@
+package cs107;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * "Quite Ok Image" Encoder working on a stream of pixels.
+ * The header is written first, then the pixels can be given row by row
+ * or in chunks of any size. The encoded data is flushed to the destination
+ * as soon as the internal buffer is full, so only the buffer and the
+ * pixels of the current call need to be kept in memory.
+ * @apiNote The destination is closed when the encoder is closed
+ * @version 1.0
+ * @since 1.0
+ */
+public final class QOIStreamEncoder implements Closeable {
+
+    /**
+     * Default size of the internal buffer (in bytes)
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final WritableByteChannel destination;
+    private final int width;
+    private final long pixelCount;
+    private final QOIEncoder.State state = new QOIEncoder.State();
+    private final byte[] buffer;
+    private final ByteBuffer view;
+    private int position;
+    private long written;
+    private boolean closed;
+
+    /**
+     * Create an encoder writing to the given stream
+     * @param destination (OutputStream) - Stream where to write the "Quite Ok Image" file
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels of the image
+     * @param colorSpace (byte) - Color space of the image
+     * @throws AssertionError if the destination is null or the header parameters are corrupted
+     */
+    public QOIStreamEncoder(OutputStream destination, int width, int height, byte channels, byte colorSpace){
+        this(Channels.newChannel(destination), width, height, channels, colorSpace, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create an encoder writing to the given channel
+     * @param destination (WritableByteChannel) - Channel where to write the "Quite Ok Image" file
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels of the image
+     * @param colorSpace (byte) - Color space of the image
+     * @throws AssertionError if the destination is null or the header parameters are corrupted
+     */
+    public QOIStreamEncoder(WritableByteChannel destination, int width, int height, byte channels, byte colorSpace){
+        this(destination, width, height, channels, colorSpace, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create an encoder writing to the given channel
+     * @param destination (WritableByteChannel) - Channel where to write the "Quite Ok Image" file
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels of the image
+     * @param colorSpace (byte) - Color space of the image
+     * @param bufferSize (int) - Size of the internal buffer (in bytes)
+     * @throws AssertionError if the destination is null, the header parameters are corrupted
+     * or the buffer cannot hold the header and the end of file
+     */
+    public QOIStreamEncoder(WritableByteChannel destination, int width, int height, byte channels, byte colorSpace, int bufferSize){
+        assert destination != null && bufferSize >= QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length;
+        byte[] header = QOIEncoder.qoiHeader(width, height, channels, colorSpace);
+        this.destination = destination;
+        this.width = width;
+        this.pixelCount = (long) width * height;
+        this.buffer = new byte[bufferSize];
+        this.view = ByteBuffer.wrap(buffer);
+        System.arraycopy(header, 0, buffer, 0, header.length);
+        this.position = header.length;
+    }
+
+    // ==================================================================================
+    // ================================ PIXELS INPUT ====================================
+    // ==================================================================================
+
+    /**
+     * Encode the next row of the image
+     * @param row (int[]) - ARGB pixels of the row
+     * @throws IOException if the destination cannot be written
+     * @throws AssertionError if the row is null or its length is not the width of the image
+     */
+    public void writeRow(int[] row) throws IOException {
+        assert row != null && row.length == width;
+        writePixels(row, 0, row.length);
+    }
+
+    /**
+     * Encode the next pixels of the image
+     * @param pixels (int[]) - ARGB pixels stored row after row
+     * @param offset (int) - Index of the first pixel to encode
+     * @param length (int) - Number of pixels to encode
+     * @throws IOException if the destination cannot be written
+     * @throws AssertionError if the pixels are null, the range is invalid,
+     * the encoder is closed or more pixels than width * height are given
+     */
+    public void writePixels(int[] pixels, int offset, int length) throws IOException {
+        assert !closed && pixels != null && offset >= 0 && length >= 0 && offset + length <= pixels.length;
+        assert written + length <= pixelCount;
+        int end = offset + length;
+        while (offset < end){
+            // Worst case: a pending run followed by one QOI_OP_RGBA per pixel
+            int room = (buffer.length - position - 1) / (QOISpecification.RGBA + 1);
+            if (room <= 0){
+                flush();
+                continue;
+            }
+            int to = Math.min(end, offset + room);
+            position = QOIEncoder.encodeData(state, pixels, offset, to, buffer, position);
+            offset = to;
+        }
+        written += length;
+    }
+
+    /**
+     * Write the pending run and the "Quite Ok Image" end of file, flush the buffer
+     * and close the destination
+     * @throws IOException if the destination cannot be written or closed
+     * @throws AssertionError if fewer than width * height pixels were given
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed){
+            return;
+        }
+        closed = true;
+        try {
+            assert written == pixelCount : "Only " + written + " out of " + pixelCount + " pixels were written";
+            if (buffer.length - position < 1 + QOISpecification.QOI_EOF.length){
+                flush();
+            }
+            position = QOIEncoder.flushRun(state, buffer, position);
+            System.arraycopy(QOISpecification.QOI_EOF, 0, buffer, position, QOISpecification.QOI_EOF.length);
+            position += QOISpecification.QOI_EOF.length;
+            flush();
+        } finally {
+            destination.close();
+        }
+    }
+
+    /**
+     * Write the content of the internal buffer to the destination
+     * @throws IOException if the destination cannot be written
+     */
+    private void flush() throws IOException {
+        view.clear().limit(position);
+        while (view.hasRemaining()){
+            destination.write(view);
+        }
+        position = 0;
+    }
+
+}